@@ -0,0 +1,65 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.AutocompleteSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// AutocompleteSystem.search and updateFrequency over a skewed query set
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AutocompleteBenchmark {
+    private static final int SAMPLES = 1 << 12;
+
+    @Param({"10000", "1000000"})
+    int datasetSize;
+
+    AutocompleteSystem autocomplete;
+    String[] queries;
+    String[] prefixes;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        Random random = new Random(1);
+        String[] topics = {"java", "javascript", "python", "rust", "kotlin", "golang", "react", "spring"};
+        List<String> log = new ArrayList<>(datasetSize);
+        for (int i = 0; i < datasetSize; i++) {
+            log.add(topics[i % topics.length] + " " + Integer.toString(i, 36) + " guide");
+        }
+        autocomplete = new AutocompleteSystem();
+        autocomplete.updateFrequencies(log);
+
+        queries = new String[SAMPLES];
+        prefixes = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            // Squared draw skews traffic toward a hot head of queries
+            double u = random.nextDouble();
+            String query = log.get((int) (u * u * datasetSize));
+            queries[i] = query;
+            prefixes[i] = query.substring(0, 1 + random.nextInt(Math.min(8, query.length())));
+        }
+    }
+
+    @Benchmark
+    public Object search(Cursor cursor) {
+        return autocomplete.search(prefixes[cursor.next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public void updateFrequency(Cursor cursor) {
+        autocomplete.updateFrequency(queries[cursor.next++ & (SAMPLES - 1)]);
+    }
+}
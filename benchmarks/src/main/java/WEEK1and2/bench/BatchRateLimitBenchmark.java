@@ -0,0 +1,55 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.DistributedRateLimiter;
+import WEEK1and2.DistributedRateLimiter.Algorithm;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Per-request cost of deciding a batch of 1024 requests one by one vs with checkRateLimits;
+// clientsPerBatch controls how much the batch can be grouped
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchRateLimitBenchmark {
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({"1", "16", "256"})
+    int clientsPerBatch;
+
+    DistributedRateLimiter limiter;
+    String[] clientIds;
+    int[] permits;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        limiter = new DistributedRateLimiter((1 << 22) - 1, 1000, Algorithm.FIXED_WINDOW);
+        clientIds = new String[BATCH_SIZE];
+        permits = new int[BATCH_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            clientIds[i] = "client-" + random.nextInt(clientsPerBatch);
+            permits[i] = 1 + random.nextInt(3);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void perRequest(Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(limiter.tryAcquire(clientIds[i], permits[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long[] batched() {
+        return limiter.checkRateLimits(clientIds, permits);
+    }
+}
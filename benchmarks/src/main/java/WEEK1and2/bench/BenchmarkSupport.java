@@ -0,0 +1,41 @@
+package WEEK1and2.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+// Shared setup helpers for the WEEK1and2 benchmarks
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    // Several classes under test log to stdout on their hot paths; keep that out of the numbers
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    // Run task(0..count-1) across many threads. Used to warm caches whose misses
+    // sleep to simulate I/O, so setup takes seconds instead of minutes.
+    static void parallelWarmup(int count, IntConsumer task) {
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final int index = i;
+                futures.add(pool.submit(() -> task.accept(index)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Warm-up failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.DNSCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// DNSCache.resolve on the cache-hit path (misses are dominated by the simulated upstream delay)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DNSCacheBenchmark {
+    @Param({"100", "1000"})
+    int datasetSize;
+
+    DNSCache cache;
+    String[] domains;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        cache = new DNSCache(datasetSize);
+        domains = new String[datasetSize];
+        for (int i = 0; i < datasetSize; i++) {
+            domains[i] = "host" + i + ".example.com";
+        }
+        BenchmarkSupport.parallelWarmup(datasetSize, i -> cache.resolve(domains[i]));
+    }
+
+    @Benchmark
+    public String resolveHit(Cursor cursor) {
+        int index = cursor.next++;
+        if (cursor.next == domains.length) {
+            cursor.next = 0;
+        }
+        return cache.resolve(domains[index]);
+    }
+}
@@ -0,0 +1,48 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.FlashSaleInventoryManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// FlashSaleInventoryManager.purchaseItem; datasetSize = 1 measures a single contended product
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlashSaleBenchmark {
+    @Param({"1", "1000"})
+    int datasetSize;
+
+    FlashSaleInventoryManager manager;
+    String[] productIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        long userId;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        manager = new FlashSaleInventoryManager();
+        productIds = new String[datasetSize];
+        for (int i = 0; i < datasetSize; i++) {
+            productIds[i] = "SKU-" + i;
+            // Effectively unlimited stock, so every call measures a successful purchase
+            manager.addProduct(productIds[i], Integer.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public Object purchaseItem(Cursor cursor) {
+        int index = cursor.next++;
+        if (cursor.next == productIds.length) {
+            cursor.next = 0;
+        }
+        return manager.purchaseItem(productIds[index], cursor.userId++);
+    }
+}
@@ -0,0 +1,55 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.MultiLevelCacheSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// MultiLevelCacheSystem.getVideo on the L1-hit path (L2/L3 hits sleep to simulate I/O)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiLevelCacheBenchmark {
+    // Reads that promote a video from L3 through L2 into L1
+    private static final int READS_TO_PROMOTE = 5;
+
+    @Param({"100", "1000"})
+    int datasetSize;
+
+    MultiLevelCacheSystem cache;
+    String[] videoIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        cache = new MultiLevelCacheSystem();
+        videoIds = new String[datasetSize];
+        for (int i = 0; i < datasetSize; i++) {
+            videoIds[i] = "video_" + i;
+            cache.addVideo(videoIds[i], "Video " + i, "https://cdn.example.com/" + i, 100L * 1024 * 1024);
+        }
+
+        BenchmarkSupport.parallelWarmup(datasetSize, i -> {
+            for (int read = 0; read < READS_TO_PROMOTE; read++) {
+                cache.getVideo(videoIds[i]);
+            }
+        });
+    }
+
+    @Benchmark
+    public Object getVideo(Cursor cursor) {
+        int index = cursor.next++;
+        if (cursor.next == videoIds.length) {
+            cursor.next = 0;
+        }
+        return cache.getVideo(videoIds[index]);
+    }
+}
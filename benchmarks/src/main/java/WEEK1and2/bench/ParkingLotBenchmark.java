@@ -0,0 +1,47 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.ParkingLotSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// ParkingLotSystem.parkVehicle (paired with exitVehicle to hold occupancy steady).
+// The lot is not thread-safe, so each benchmark thread gets its own lot.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParkingLotBenchmark {
+    private static final int PLATES = 1 << 12;
+
+    @Param({"500", "100000"})
+    int datasetSize;
+
+    ParkingLotSystem lot;
+    String[] plates;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        lot = new ParkingLotSystem(datasetSize);
+        // Hold the lot at ~70% occupancy so parking exercises real probe chains
+        for (int i = 0; i < datasetSize * 7 / 10; i++) {
+            lot.parkVehicle("RES-" + i);
+        }
+        plates = new String[PLATES];
+        for (int i = 0; i < PLATES; i++) {
+            plates[i] = "CAR-" + i;
+        }
+    }
+
+    @Benchmark
+    public Object parkVehicle() {
+        String plate = plates[next++ & (PLATES - 1)];
+        Object result = lot.parkVehicle(plate);
+        lot.exitVehicle(plate);
+        return result;
+    }
+}
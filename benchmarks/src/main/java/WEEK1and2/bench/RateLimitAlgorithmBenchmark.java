@@ -0,0 +1,51 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.DistributedRateLimiter;
+import WEEK1and2.DistributedRateLimiter.Algorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of one checkRateLimit per algorithm. The 1s window with the largest allowed limit keeps
+// buckets refilling, so both the allow and the deny path are exercised.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimitAlgorithmBenchmark {
+    @Param({"FIXED_WINDOW", "TOKEN_BUCKET", "SLIDING_WINDOW", "GCRA"})
+    Algorithm algorithm;
+
+    @Param({"1", "1000"})
+    int datasetSize;
+
+    DistributedRateLimiter limiter;
+    String[] clientIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        limiter = new DistributedRateLimiter((1 << 22) - 1, 1000, algorithm);
+        clientIds = new String[datasetSize];
+        for (int i = 0; i < datasetSize; i++) {
+            clientIds[i] = "client-" + i;
+            limiter.checkRateLimit(clientIds[i]);
+        }
+    }
+
+    @Benchmark
+    public Object checkRateLimit(Cursor cursor) {
+        int index = cursor.next++;
+        if (cursor.next == clientIds.length) {
+            cursor.next = 0;
+        }
+        return limiter.checkRateLimit(clientIds[index]);
+    }
+}
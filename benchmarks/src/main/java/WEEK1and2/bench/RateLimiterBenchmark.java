@@ -0,0 +1,55 @@
+package WEEK1and2.bench;
+
+import WEEK1and2.DistributedRateLimiter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// DistributedRateLimiter.checkRateLimit and tryAcquire; datasetSize = 1 measures a single hot client
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimiterBenchmark {
+    @Param({"1", "1000", "100000"})
+    int datasetSize;
+
+    DistributedRateLimiter limiter;
+    String[] clientIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.silenceStdout();
+        limiter = new DistributedRateLimiter(1_000_000);
+        clientIds = new String[datasetSize];
+        for (int i = 0; i < datasetSize; i++) {
+            clientIds[i] = "client-" + i;
+            limiter.checkRateLimit(clientIds[i]);
+        }
+    }
+
+    @Benchmark
+    public Object checkRateLimit(Cursor cursor) {
+        int index = cursor.next++;
+        if (cursor.next == clientIds.length) {
+            cursor.next = 0;
+        }
+        return limiter.checkRateLimit(clientIds[index]);
+    }
+
+    @Benchmark
+    public boolean tryAcquire(Cursor cursor) {
+        int index = cursor.next++;
+        if (cursor.next == clientIds.length) {
+            cursor.next = 0;
+        }
+        return limiter.tryAcquire(clientIds[index]);
+    }
+}
@@ -0,0 +1,45 @@
+package WEEK1and2.bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+// Runs the selected benchmarks once per thread count and prints one summary table.
+// Usage: ThreadSweep <threads, e.g. 1,4,8> [benchmark regex]
+public class ThreadSweep {
+    public static void main(String[] args) throws RunnerException {
+        String[] threadCounts = (args.length > 0 ? args[0] : "1,4").split(",");
+        String include = args.length > 1 ? args[1] : "WEEK1and2.bench.*";
+
+        List<String> rows = new ArrayList<>();
+        for (String threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .build();
+            for (RunResult result : new Runner(options).run()) {
+                // Every @Param of the benchmark (datasetSize, clientsPerBatch, algorithm, ...)
+                StringJoiner params = new StringJoiner(",");
+                for (String key : result.getParams().getParamsKeys()) {
+                    params.add(key + "=" + result.getParams().getParam(key));
+                }
+                rows.add(String.format("%-60s %-36s %3s threads %12.1f %s",
+                        result.getParams().getBenchmark(),
+                        params,
+                        threads.trim(),
+                        result.getPrimaryResult().getScore(),
+                        result.getPrimaryResult().getScoreUnit()));
+            }
+        }
+
+        System.out.println();
+        System.out.println("Benchmark / params / threads / score");
+        rows.forEach(System.out::println);
+    }
+}
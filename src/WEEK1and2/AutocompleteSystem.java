@@ -1,35 +1,1282 @@
 package WEEK1and2;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 
 public class AutocompleteSystem {
+    private static final int ADMISSION_SLOTS = 1 << 12;
+    private static final int MAX_CORRECTION_EDITS = 2;
+    private static final long DEFAULT_HALF_LIFE_MILLIS = 60 * 60 * 1000; // 1 hour
+    // Shared by every instance's periodic snapshots
+    private static final ScheduledExecutorService SNAPSHOT_SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "autocomplete-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     // Global query frequency storage
     private final ConcurrentHashMap<String, Integer> queryFrequency;
     // Trie for prefix-based search
     private final TrieNode root;
     // Cache for popular prefix results
-    private final ConcurrentHashMap<String, List<SearchSuggestion>> prefixCache;
+    private final ConcurrentHashMap<String, CacheEntry> prefixCache;
+    // CLOCK order of cached prefixes for bounded eviction; cacheQueued holds the keys now in
+    // the queue, so a prefix dropped as stale and admitted again is not queued twice
+    private final ConcurrentLinkedQueue<String> cacheClock;
+    private final Set<String> cacheQueued;
+    // Approximate per-prefix search counts gating cache admission
+    private final AtomicIntegerArray admissionCounts;
+    private final AtomicInteger searchesSinceAging;
     private final int maxSuggestions;
     private final int cacheThreshold;
+    private final int maxCacheEntries;
+    // Frozen radix snapshot used for searches until the next update (null = use live trie)
+    private final AtomicReference<CompactTrie> compactIndex;
+    // Every known query, indexed for typo correction
+    private final FuzzyIndex correctionIndex;
+    // Memory-mapped snapshot serving searches while it is replayed into the trie (null once warm)
+    private volatile QuerySnapshot mappedSnapshot;
+    private volatile CompletableFuture<Void> snapshotRebuild;
+    // Search instrumentation, SearchStats unless replaced
+    private volatile SearchMetrics metrics;
+    // Decay rate (per millisecond) for trending scores, and the clock they are measured on
+    private final double decayRate;
+    private final LongSupplier clock;
+
+    // Instrumentation hook called once per search. It runs on the request path, so
+    // implementations must be thread-safe and should neither block nor allocate.
+    public interface SearchMetrics {
+        SearchMetrics NONE = (latencyNanos, cacheHit, trieDepth) -> { };
+
+        void recordSearch(long latencyNanos, boolean cacheHit, int trieDepth);
+    }
+
+    // Default metrics: latency histogram, cache hit/miss counters and trie depth walked
+    public static final class SearchStats implements SearchMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder cacheMisses = new LongAdder();
+        private final LongAdder depthWalked = new LongAdder();
+
+        @Override
+        public void recordSearch(long latencyNanos, boolean cacheHit, int trieDepth) {
+            latency.record(latencyNanos);
+            (cacheHit ? cacheHits : cacheMisses).increment();
+            depthWalked.add(trieDepth);
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        public long cacheHits() {
+            return cacheHits.sum();
+        }
+
+        public long cacheMisses() {
+            return cacheMisses.sum();
+        }
+
+        public double cacheHitRate() {
+            long hits = cacheHits.sum();
+            long total = hits + cacheMisses.sum();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        // Average trie levels walked per search (cache hits walk none)
+        public double averageDepthWalked() {
+            long searches = cacheHits.sum() + cacheMisses.sum();
+            return searches == 0 ? 0 : (double) depthWalked.sum() / searches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("searches=%d, cache hit rate=%.1f%%, avg depth=%.1f, latency[%s]",
+                    cacheHits() + cacheMisses(), cacheHitRate() * 100, averageDepthWalked(), latency);
+        }
+    }
+
+    // How suggestions are ranked
+    public enum RankingMode implements Comparator<SearchSuggestion> {
+        // Lifetime search counts
+        POPULAR {
+            @Override
+            public int compare(SearchSuggestion a, SearchSuggestion b) {
+                return a.compareTo(b);
+            }
+        },
+        // Exponentially decayed counts, so recent bursts can overtake old totals
+        TRENDING {
+            @Override
+            public int compare(SearchSuggestion a, SearchSuggestion b) {
+                if (a.trendScore != b.trendScore) {
+                    return Double.compare(b.trendScore, a.trendScore);
+                }
+                return a.query.compareTo(b.query);
+            }
+        }
+    }
 
     static class TrieNode {
-        Map<Character, TrieNode> children;
-        boolean isEndOfWord;
-        String query;
+        private static final AtomicReferenceFieldUpdater<TrieNode, ChildTable> CHILDREN =
+                AtomicReferenceFieldUpdater.newUpdater(TrieNode.class, ChildTable.class, "children");
+        private static final AtomicReferenceFieldUpdater<TrieNode, TopK> TOP_K =
+                AtomicReferenceFieldUpdater.newUpdater(TrieNode.class, TopK.class, "topK");
+        private static final AtomicReferenceFieldUpdater<TrieNode, TopK> TRENDING_TOP_K =
+                AtomicReferenceFieldUpdater.newUpdater(TrieNode.class, TopK.class, "trendingTopK");
+        private static final AtomicLongFieldUpdater<TrieNode> TREND_SCORE =
+                AtomicLongFieldUpdater.newUpdater(TrieNode.class, "trendScoreBits");
+        private static final long NO_TREND_SCORE = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+        static final long SHALLOW_SIZE = MemoryLayout.shallowSize(TrieNode.class);
+
+        // Immutable child table, replaced by CAS so readers never lock
+        volatile ChildTable children;
+        volatile boolean isEndOfWord;
+        volatile String query;
+        // Best suggestions anywhere in this subtree, by lifetime count and by decayed score
+        volatile TopK topK;
+        volatile TopK trendingTopK;
+        // Decayed score of this node's query (double bits, see updateTrendScore)
+        volatile long trendScoreBits;
 
         public TrieNode() {
-            this.children = new HashMap<>();
+            this.children = ChildTable.EMPTY;
             this.isEndOfWord = false;
+            this.topK = TopK.EMPTY;
+            this.trendingTopK = TopK.EMPTY;
+            this.trendScoreBits = NO_TREND_SCORE;
+        }
+
+        TopK ranking(RankingMode mode) {
+            return mode == RankingMode.TRENDING ? trendingTopK : topK;
+        }
+
+        // Merge a new suggestion into both of this node's rankings; both keys only grow,
+        // so a query that falls out of a list can only come back through a later offer
+        void offer(SearchSuggestion suggestion, int capacity) {
+            offer(TOP_K, RankingMode.POPULAR, suggestion, capacity);
+            offer(TRENDING_TOP_K, RankingMode.TRENDING, suggestion, capacity);
+        }
+
+        private void offer(AtomicReferenceFieldUpdater<TrieNode, TopK> field, RankingMode mode,
+                           SearchSuggestion suggestion, int capacity) {
+            while (true) {
+                TopK current = field.get(this);
+                TopK updated = current.offer(suggestion, capacity, mode);
+                if (updated == current || field.compareAndSet(this, current, updated)) {
+                    return;
+                }
+            }
+        }
+
+        // Add log(weight) to this query's score in log space: log(e^score + weight)
+        double addTrendScore(double logWeight) {
+            while (true) {
+                long bits = trendScoreBits;
+                double current = Double.longBitsToDouble(bits);
+                double updated = logAddExp(current, logWeight);
+                if (TREND_SCORE.compareAndSet(this, bits, Double.doubleToRawLongBits(updated))) {
+                    return updated;
+                }
+            }
+        }
+
+        private static double logAddExp(double a, double b) {
+            if (a == Double.NEGATIVE_INFINITY) {
+                return b;
+            }
+            double max = Math.max(a, b);
+            return max + Math.log1p(Math.exp(Math.min(a, b) - max));
+        }
+
+        // Lock-free child lookup (binary search over sorted labels)
+        TrieNode getChild(char ch) {
+            ChildTable table = children;
+            int index = Arrays.binarySearch(table.labels, ch);
+            return index >= 0 ? table.nodes[index] : null;
+        }
+
+        // Return existing child or publish a new one; retries if another thread won the race
+        TrieNode getOrCreateChild(char ch) {
+            TrieNode created = null;
+            while (true) {
+                ChildTable table = children;
+                int index = Arrays.binarySearch(table.labels, ch);
+                if (index >= 0) {
+                    return table.nodes[index];
+                }
+                if (created == null) {
+                    created = new TrieNode();
+                }
+                if (CHILDREN.compareAndSet(this, table, table.with(-(index + 1), ch, created))) {
+                    return created;
+                }
+            }
+        }
+
+        // Snapshot of current children for traversal
+        TrieNode[] childNodes() {
+            return children.nodes;
+        }
+    }
+
+    // Copy-on-write edge list: sorted char labels with parallel child array
+    static final class ChildTable {
+        static final ChildTable EMPTY = new ChildTable(new char[0], new TrieNode[0]);
+        static final long SHALLOW_SIZE = MemoryLayout.shallowSize(ChildTable.class);
+
+        final char[] labels;
+        final TrieNode[] nodes;
+
+        ChildTable(char[] labels, TrieNode[] nodes) {
+            this.labels = labels;
+            this.nodes = nodes;
+        }
+
+        ChildTable with(int position, char label, TrieNode node) {
+            int size = labels.length;
+            char[] newLabels = new char[size + 1];
+            TrieNode[] newNodes = new TrieNode[size + 1];
+            System.arraycopy(labels, 0, newLabels, 0, position);
+            System.arraycopy(nodes, 0, newNodes, 0, position);
+            newLabels[position] = label;
+            newNodes[position] = node;
+            System.arraycopy(labels, position, newLabels, position + 1, size - position);
+            System.arraycopy(nodes, position, newNodes, position + 1, size - position);
+            return new ChildTable(newLabels, newNodes);
+        }
+    }
+
+    // Immutable ranked snapshot; the list view is built once so searches allocate nothing
+    static final class TopK {
+        static final TopK EMPTY = new TopK(new SearchSuggestion[0]);
+        static final long SHALLOW_SIZE = MemoryLayout.shallowSize(TopK.class);
+
+        final SearchSuggestion[] items;
+        final List<SearchSuggestion> view;
+
+        TopK(SearchSuggestion[] items) {
+            this.items = items;
+            this.view = Collections.unmodifiableList(Arrays.asList(items));
+        }
+
+        // Returns this when the candidate does not change the ranking
+        TopK offer(SearchSuggestion candidate, int capacity, RankingMode mode) {
+            int existing = -1;
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].query.equals(candidate.query)) {
+                    existing = i;
+                    break;
+                }
+            }
+            if (existing >= 0 && mode.compare(items[existing], candidate) <= 0) {
+                return this;
+            }
+            if (existing < 0 && items.length >= capacity
+                    && mode.compare(candidate, items[items.length - 1]) >= 0) {
+                return this;
+            }
+
+            // Drop the stale entry for this query, then insert at the ranked position
+            SearchSuggestion[] remaining = items;
+            if (existing >= 0) {
+                remaining = new SearchSuggestion[items.length - 1];
+                System.arraycopy(items, 0, remaining, 0, existing);
+                System.arraycopy(items, existing + 1, remaining, existing, items.length - existing - 1);
+            }
+            int position = Arrays.binarySearch(remaining, candidate, mode);
+            if (position < 0) {
+                position = -(position + 1);
+            }
+            int size = Math.min(remaining.length + 1, capacity);
+            SearchSuggestion[] merged = new SearchSuggestion[size];
+            System.arraycopy(remaining, 0, merged, 0, position);
+            merged[position] = candidate;
+            System.arraycopy(remaining, position, merged, position + 1, size - position - 1);
+            return new TopK(merged);
+        }
+    }
+
+    // Read-only path-compressed radix tree built from the live trie.
+    // Nodes, edges and top-K lists live in flat primitive arrays; only queries
+    // that appear in some top-K list are kept as strings.
+    static final class CompactTrie {
+        // Marker installed while a snapshot is being built
+        static final CompactTrie PENDING = new CompactTrie();
+
+        // Edges of node n are [edgeStart[n], edgeStart[n + 1])
+        final int[] edgeStart;
+        // Edge label e is labelPool[labelStart[e] .. labelStart[e + 1])
+        final int[] labelStart;
+        final char[] labelPool;
+        final int[] edgeTarget;
+        // Top-K of node n is topIds[topStart[n] .. topStart[n + 1])
+        final int[] topStart;
+        final int[] topIds;
+        final String[] queries;
+        final int[] frequencies;
+
+        private CompactTrie() {
+            this(new int[]{0, 0}, new int[]{0}, new char[0], new int[0],
+                    new int[]{0, 0}, new int[0], new String[0], new int[0]);
+        }
+
+        private CompactTrie(int[] edgeStart, int[] labelStart, char[] labelPool, int[] edgeTarget,
+                            int[] topStart, int[] topIds, String[] queries, int[] frequencies) {
+            this.edgeStart = edgeStart;
+            this.labelStart = labelStart;
+            this.labelPool = labelPool;
+            this.edgeTarget = edgeTarget;
+            this.topStart = topStart;
+            this.topIds = topIds;
+            this.queries = queries;
+            this.frequencies = frequencies;
+        }
+
+        static CompactTrie build(TrieNode root) {
+            Builder builder = new Builder();
+            builder.nodes.add(root);
+            // Breadth-first: node ids are assigned as nodes are discovered
+            for (int n = 0; n < builder.nodes.size(); n++) {
+                TrieNode node = builder.nodes.get(n);
+                builder.startNode(n, node.topK);
+                ChildTable children = node.children;
+                for (int c = 0; c < children.labels.length; c++) {
+                    builder.appendEdge(children.labels[c], children.nodes[c]);
+                }
+            }
+            return builder.finish();
+        }
+
+        // Same answer the live trie gave when this snapshot was taken
+        List<SearchSuggestion> search(String prefix) {
+            int node = 0;
+            int matched = 0;
+            while (matched < prefix.length()) {
+                int edge = findEdge(node, prefix.charAt(matched));
+                if (edge < 0) {
+                    return Collections.emptyList();
+                }
+                // Compare the rest of the label; the prefix may end partway along it
+                int labelEnd = labelStart[edge + 1];
+                for (int i = labelStart[edge]; i < labelEnd && matched < prefix.length(); i++, matched++) {
+                    if (labelPool[i] != prefix.charAt(matched)) {
+                        return Collections.emptyList();
+                    }
+                }
+                node = edgeTarget[edge];
+            }
+
+            int from = topStart[node];
+            int to = topStart[node + 1];
+            List<SearchSuggestion> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                result.add(new SearchSuggestion(queries[topIds[i]], frequencies[topIds[i]]));
+            }
+            return result;
+        }
+
+        // Binary search the node's edges by first label character
+        private int findEdge(int node, char ch) {
+            int low = edgeStart[node];
+            int high = edgeStart[node + 1] - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char first = labelPool[labelStart[mid]];
+                if (first < ch) {
+                    low = mid + 1;
+                } else if (first > ch) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        int nodeCount() {
+            return edgeStart.length - 1;
+        }
+
+        long retainedSizeBytes() {
+            long size = MemoryLayout.OBJECT_HEADER + 8 * MemoryLayout.REFERENCE;
+            size += MemoryLayout.intArray(edgeStart.length) + MemoryLayout.intArray(labelStart.length)
+                    + MemoryLayout.charArray(labelPool.length) + MemoryLayout.intArray(edgeTarget.length)
+                    + MemoryLayout.intArray(topStart.length) + MemoryLayout.intArray(topIds.length)
+                    + MemoryLayout.referenceArray(queries.length) + MemoryLayout.intArray(frequencies.length);
+            for (String query : queries) {
+                size += MemoryLayout.string(query);
+            }
+            return size;
+        }
+
+        private static final class Builder {
+            final List<TrieNode> nodes = new ArrayList<>();
+            final Map<String, Integer> queryIds = new HashMap<>();
+            final List<String> queries = new ArrayList<>();
+            int[] frequencies = new int[16];
+            int[] edgeStart = new int[16];
+            int[] labelStart = new int[16];
+            char[] labelPool = new char[64];
+            int[] edgeTarget = new int[16];
+            int[] topStart = new int[16];
+            int[] topIds = new int[64];
+            int edgeCount;
+            int labelLength;
+            int topCount;
+
+            void startNode(int node, TopK topK) {
+                edgeStart = push(edgeStart, node, edgeCount);
+                topStart = push(topStart, node, topCount);
+                for (SearchSuggestion suggestion : topK.items) {
+                    Integer id = queryIds.get(suggestion.query);
+                    if (id == null) {
+                        id = queries.size();
+                        queryIds.put(suggestion.query, id);
+                        queries.add(suggestion.query);
+                        frequencies = push(frequencies, id, suggestion.frequency);
+                    }
+                    topIds = push(topIds, topCount++, id);
+                }
+            }
+
+            // A run of single-child, non-terminal nodes has the same subtree (and top-K)
+            // as its last node, so the run collapses into one labelled edge
+            void appendEdge(char first, TrieNode child) {
+                labelStart = push(labelStart, edgeCount, labelLength);
+                appendLabel(first);
+                TrieNode target = child;
+                ChildTable next = target.children;
+                while (!target.isEndOfWord && next.labels.length == 1) {
+                    appendLabel(next.labels[0]);
+                    target = next.nodes[0];
+                    next = target.children;
+                }
+                edgeTarget = push(edgeTarget, edgeCount++, nodes.size());
+                nodes.add(target);
+            }
+
+            private void appendLabel(char ch) {
+                if (labelLength == labelPool.length) {
+                    labelPool = Arrays.copyOf(labelPool, labelPool.length * 2);
+                }
+                labelPool[labelLength++] = ch;
+            }
+
+            CompactTrie finish() {
+                int nodeCount = nodes.size();
+                edgeStart = push(edgeStart, nodeCount, edgeCount);
+                topStart = push(topStart, nodeCount, topCount);
+                labelStart = push(labelStart, edgeCount, labelLength);
+                return new CompactTrie(
+                        Arrays.copyOf(edgeStart, nodeCount + 1),
+                        Arrays.copyOf(labelStart, edgeCount + 1),
+                        Arrays.copyOf(labelPool, labelLength),
+                        Arrays.copyOf(edgeTarget, edgeCount),
+                        Arrays.copyOf(topStart, nodeCount + 1),
+                        Arrays.copyOf(topIds, topCount),
+                        queries.toArray(new String[0]),
+                        Arrays.copyOf(frequencies, queries.size()));
+            }
+
+            static int[] push(int[] array, int index, int value) {
+                if (index >= array.length) {
+                    array = Arrays.copyOf(array, Math.max(array.length * 2, index + 1));
+                }
+                array[index] = value;
+                return array;
+            }
+        }
+    }
+
+    // Exact index for queries within MAX_CORRECTION_EDITS edits of a typo (partition filter,
+    // as in Pass-Join). A query of length L is cut into MAX_CORRECTION_EDITS + 1 segments at
+    // fixed offsets; each edit breaks at most one segment, so any query within the bound keeps
+    // one segment intact in the typo, shifted by at most MAX_CORRECTION_EDITS. A lookup probes
+    // those substrings of the typo for every possible length and verifies each candidate.
+    // Buckets are hashed without keys: a collision only adds a candidate that verification
+    // rejects. Writers append under a lock and publish with lazySet; readers never lock.
+    static final class FuzzyIndex {
+        private static final int SEGMENTS = MAX_CORRECTION_EDITS + 1;
+        // Block layout in the pool: next block, capacity << 8 | entry count, then (query id,
+        // signature) pairs. Blocks grow 1, 4, 16, 64 per bucket so a long chain is a few
+        // sequential reads.
+        private static final int BLOCK_HEADER = 2;
+        private static final int MAX_BLOCK_ENTRIES = 64;
+        private static final ThreadLocal<int[][]> ROWS = ThreadLocal.withInitial(() -> new int[2][64]);
+
+        // Replaced, never resized in place, so a reader's table stays self-consistent.
+        // Block offsets are positive; 0 ends a chain.
+        private static final class Table {
+            final String[] queries;
+            final AtomicIntegerArray heads;
+            final AtomicIntegerArray pool;
+            int queryCount;
+            int poolUsed = 1;
+
+            Table(int queryCapacity, int poolCapacity) {
+                this.queries = new String[queryCapacity];
+                this.heads = new AtomicIntegerArray(Integer.highestOneBit(queryCapacity * SEGMENTS - 1) * 2);
+                this.pool = new AtomicIntegerArray(poolCapacity);
+            }
+        }
+
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private volatile Table table = new Table(16, 256);
+
+        void add(String query) {
+            writeLock.lock();
+            try {
+                Table t = table;
+                int worstCase = SEGMENTS * (BLOCK_HEADER + 2 * MAX_BLOCK_ENTRIES);
+                if (t.queryCount == t.queries.length || t.poolUsed + worstCase > t.pool.length()) {
+                    t = rebuild(t);
+                }
+                int id = t.queryCount;
+                t.queries[id] = query;
+                link(t, query, id);
+                t.queryCount = id + 1;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Double the capacity, re-link every query into fresh (tightly packed) blocks, publish
+        private Table rebuild(Table old) {
+            Table t = new Table(old.queries.length * 2, old.pool.length() * 2);
+            for (int id = 0; id < old.queryCount; id++) {
+                t.queries[id] = old.queries[id];
+                link(t, old.queries[id], id);
+            }
+            t.queryCount = old.queryCount;
+            table = t;
+            return t;
+        }
+
+        private static void link(Table t, String query, int id) {
+            int length = query.length();
+            int signature = signature(query);
+            int segments = length < SEGMENTS ? 1 : SEGMENTS; // short queries: one bucket per length
+            for (int segment = 0; segment < segments; segment++) {
+                int start = segmentStart(length, segment);
+                int bucket = bucket(t, length, segment, query, start, segmentStart(length, segment + 1));
+                AtomicIntegerArray pool = t.pool;
+                int block = t.heads.get(bucket);
+                int meta = block == 0 ? 0 : pool.get(block + 1);
+                int count = meta & 0xFF;
+                if (block == 0 || count == meta >>> 8) {
+                    int capacity = block == 0 ? 1 : Math.min(MAX_BLOCK_ENTRIES, count * 4);
+                    int fresh = t.poolUsed;
+                    t.poolUsed += BLOCK_HEADER + 2 * capacity;
+                    pool.set(fresh, block);
+                    pool.set(fresh + BLOCK_HEADER, id);
+                    pool.set(fresh + BLOCK_HEADER + 1, signature);
+                    pool.lazySet(fresh + 1, capacity << 8 | 1);
+                    t.heads.lazySet(bucket, fresh);
+                } else {
+                    pool.set(block + BLOCK_HEADER + 2 * count, id);
+                    pool.set(block + BLOCK_HEADER + 2 * count + 1, signature);
+                    pool.lazySet(block + 1, meta + 1);
+                }
+            }
+        }
+
+        // Even partition: the last (length % SEGMENTS) segments are one character longer
+        private static int segmentStart(int length, int segment) {
+            int base = length / SEGMENTS;
+            int shorter = SEGMENTS - length % SEGMENTS;
+            return segment <= shorter ? segment * base : shorter * base + (segment - shorter) * (base + 1);
+        }
+
+        private static int bucket(Table t, int length, int segment, String text, int from, int to) {
+            int h = length < SEGMENTS ? length : length * 31 + segment;
+            for (int i = from; i < to; i++) {
+                h = h * 31 + text.charAt(i);
+            }
+            h *= 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (t.heads.length() - 1);
+        }
+
+        // One bit per character (mod 32). An edit adds or removes at most one character, so
+        // two strings within MAX_CORRECTION_EDITS differ in at most 2 * MAX_CORRECTION_EDITS bits.
+        private static int signature(String text) {
+            int bits = 0;
+            for (int i = 0; i < text.length(); i++) {
+                bits |= 1 << text.charAt(i);
+            }
+            return bits;
+        }
+
+        // Up to `limit` indexed queries within the edit bound, most frequent first (ties
+        // alphabetical). Only `limit` results are kept while candidates are verified.
+        List<String> lookup(String typo, int limit, Map<String, Integer> frequencies) {
+            Table t = table;
+            int m = typo.length();
+            int typoSignature = signature(typo);
+            int maxSignatureBits = 2 * MAX_CORRECTION_EDITS;
+            String[] best = new String[limit];
+            int[] bestFrequency = new int[limit];
+            int kept = 0;
+            int maxLength = m + MAX_CORRECTION_EDITS;
+            for (int length = Math.max(0, m - MAX_CORRECTION_EDITS); length <= maxLength; length++) {
+                int delta = m - length;
+                int segments = length < SEGMENTS ? 1 : SEGMENTS;
+                for (int segment = 0; segment < segments; segment++) {
+                    int start = segmentStart(length, segment);
+                    int size = segmentStart(length, segment + 1) - start;
+                    // Segment i can shift by at most i edits before it and MAX_CORRECTION_EDITS - i
+                    // after it (the typo's length difference is spent on one side or the other)
+                    int from = Math.max(start - segment, start + delta - (MAX_CORRECTION_EDITS - segment));
+                    int to = Math.min(start + segment, start + delta + (MAX_CORRECTION_EDITS - segment));
+                    if (length < SEGMENTS) {
+                        from = to = 0;
+                    }
+                    for (int position = Math.max(0, from); position <= to && position + size <= m; position++) {
+                        int bucket = bucket(t, length, segment, typo, position, position + size);
+                        for (int block = t.heads.get(bucket); block != 0; block = t.pool.get(block)) {
+                            int end = block + BLOCK_HEADER + 2 * (t.pool.get(block + 1) & 0xFF);
+                            for (int e = block + BLOCK_HEADER; e < end; e += 2) {
+                                if (Integer.bitCount(t.pool.get(e + 1) ^ typoSignature) > maxSignatureBits) {
+                                    continue;
+                                }
+                                String query = t.queries[t.pool.get(e)];
+                                if (query == null || query.length() != length
+                                        || editDistance(query, typo) > MAX_CORRECTION_EDITS) {
+                                    continue;
+                                }
+                                kept = offer(query, frequencies.getOrDefault(query, 0), best, bestFrequency, kept);
+                            }
+                        }
+                    }
+                }
+            }
+            return Arrays.asList(Arrays.copyOf(best, kept));
+        }
+
+        // Insert into the ranked top list unless it is already there (several segments of
+        // one query can match) or ranks below a full list; returns the new size
+        private static int offer(String query, int frequency, String[] best, int[] bestFrequency, int kept) {
+            for (int i = 0; i < kept; i++) {
+                if (best[i].equals(query)) {
+                    return kept;
+                }
+            }
+            int position = kept;
+            while (position > 0 && (bestFrequency[position - 1] < frequency
+                    || (bestFrequency[position - 1] == frequency && best[position - 1].compareTo(query) > 0))) {
+                position--;
+            }
+            if (position == best.length) {
+                return kept;
+            }
+            int moved = Math.min(kept, best.length - 1) - position;
+            System.arraycopy(best, position, best, position + 1, moved);
+            System.arraycopy(bestFrequency, position, bestFrequency, position + 1, moved);
+            best[position] = query;
+            bestFrequency[position] = frequency;
+            return Math.min(kept + 1, best.length);
+        }
+
+        // Levenshtein distance, or MAX_CORRECTION_EDITS + 1 as soon as a row exceeds the bound.
+        // The two DP rows are per thread and reused across calls.
+        private static int editDistance(String a, String b) {
+            int n = a.length();
+            int m = b.length();
+            if (Math.abs(n - m) > MAX_CORRECTION_EDITS) {
+                return MAX_CORRECTION_EDITS + 1;
+            }
+            int[][] rows = ROWS.get();
+            if (rows[0].length <= m) {
+                rows = new int[][]{new int[m * 2 + 1], new int[m * 2 + 1]};
+                ROWS.set(rows);
+            }
+            int[] previous = rows[0];
+            int[] current = rows[1];
+            for (int j = 0; j <= m; j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= n; i++) {
+                char ca = a.charAt(i - 1);
+                current[0] = i;
+                int rowMin = i;
+                for (int j = 1; j <= m; j++) {
+                    int substitution = previous[j - 1] + (ca == b.charAt(j - 1) ? 0 : 1);
+                    int value = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                    current[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                if (rowMin > MAX_CORRECTION_EDITS) {
+                    return MAX_CORRECTION_EDITS + 1;
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[m];
+        }
+
+        // Index arrays only; the query strings are shared with the trie
+        long retainedSizeBytes() {
+            Table t = table;
+            return MemoryLayout.object(2, 0) + MemoryLayout.object(3, 8)
+                    + MemoryLayout.referenceArray(t.queries.length)
+                    + 2 * MemoryLayout.object(1, 0)
+                    + MemoryLayout.intArray(t.heads.length()) + MemoryLayout.intArray(t.pool.length());
+        }
+    }
+
+    // Sorted, front-coded snapshot of every query with its count and decayed score, plus the
+    // top-K of every prefix too large to rank by scanning, so a mapped search stays cheap.
+    // Layout (big-endian):
+    //   header:  int MAGIC, int VERSION, double decayRate, int entryCount, int topK
+    //   records: varint sharedBytes, varint suffixBytes, suffix (UTF-8), varint frequency,
+    //            double trendScore; every RESTART_INTERVAL-th record stores its full key
+    //   index:   int offset of each restart record
+    //   ranges:  for every prefix matching more than topK records, sorted by record range:
+    //            int first, int end (record range), topK popular ids, topK trending ids
+    //   trailer: int indexOffset, int restartCount, int rangesOffset, int rangeCount
+    static final class QuerySnapshot {
+        static final int MAGIC = 0x41435331; // "ACS1"
+        static final int VERSION = 2;
+        static final int RESTART_INTERVAL = 16;
+        private static final int HEADER_BYTES = 24;
+        private static final int TRAILER_BYTES = 16;
+
+        interface RecordVisitor {
+            void accept(String query, int frequency, double trendScore);
+        }
+
+        // Ranking of record ids; ties go to the lower id, i.e. the alphabetically first query
+        private interface RecordOrder {
+            int compare(int a, int b);
+        }
+
+        private final ByteBuffer data;
+        final double decayRate;
+        final int entryCount;
+        private final int topK;
+        private final int indexOffset;
+        private final int restartCount;
+        private final int rangesOffset;
+        private final int rangeCount;
+
+        private QuerySnapshot(ByteBuffer data) throws IOException {
+            this.data = data;
+            if (data.capacity() < HEADER_BYTES + TRAILER_BYTES
+                    || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException("Not an autocomplete snapshot (version " + VERSION + ")");
+            }
+            this.decayRate = data.getDouble(8);
+            this.entryCount = data.getInt(16);
+            this.topK = data.getInt(20);
+            int trailer = data.capacity() - TRAILER_BYTES;
+            this.indexOffset = data.getInt(trailer);
+            this.restartCount = data.getInt(trailer + 4);
+            this.rangesOffset = data.getInt(trailer + 8);
+            this.rangeCount = data.getInt(trailer + 12);
+        }
+
+        // Keys must be sorted; frequencies and scores are parallel to them. topK is the
+        // longest result a mapped search can answer without scanning the prefix's records.
+        // Written to a fresh temp file next to the target, then moved over it atomically.
+        static void write(Path file, double decayRate, String[] keys, int[] frequencies,
+                          double[] trendScores, int topK) throws IOException {
+            Path dir = file.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(dir, file.getFileName() + ".", ".tmp");
+            try {
+                writeTo(temp, decayRate, keys, frequencies, trendScores, topK);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+        }
+
+        private static void writeTo(Path temp, double decayRate, String[] keys, int[] frequencies,
+                                    double[] trendScores, int topK) throws IOException {
+            // DataOutputStream.size() stops at Integer.MAX_VALUE, so offsets are counted here
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+            try (DataOutputStream out = new DataOutputStream(counter)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeDouble(decayRate);
+                out.writeInt(keys.length);
+                out.writeInt(topK);
+
+                int[] restarts = new int[(keys.length + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+                byte[] previous = new byte[0];
+                for (int i = 0; i < keys.length; i++) {
+                    byte[] key = keys[i].getBytes(StandardCharsets.UTF_8);
+                    int shared = 0;
+                    if (i % RESTART_INTERVAL == 0) {
+                        restarts[i / RESTART_INTERVAL] = counter.offset();
+                    } else {
+                        int limit = Math.min(previous.length, key.length);
+                        while (shared < limit && previous[shared] == key[shared]) {
+                            shared++;
+                        }
+                    }
+                    writeVarInt(out, shared);
+                    writeVarInt(out, key.length - shared);
+                    out.write(key, shared, key.length - shared);
+                    writeVarInt(out, frequencies[i]);
+                    out.writeDouble(trendScores[i]);
+                    previous = key;
+                }
+
+                int indexOffset = counter.offset();
+                for (int restart : restarts) {
+                    out.writeInt(restart);
+                }
+
+                int rangesOffset = counter.offset();
+                int rangeCount = writeRanges(out, keys, frequencies, trendScores, topK);
+                out.writeInt(indexOffset);
+                out.writeInt(restarts.length);
+                out.writeInt(rangesOffset);
+                out.writeInt(rangeCount);
+                counter.offset(); // the whole file must stay mappable as one buffer
+            }
+        }
+
+        // The records matching a prefix form a contiguous range, and every range of two or more
+        // records is an LCP interval of the sorted keys. One stack pass over the adjacent-key
+        // LCPs closes each interval after its children, merging their top-K lists on the way up;
+        // intervals with more than topK records are written. Returns how many were written.
+        private static int writeRanges(DataOutputStream out, String[] keys, int[] frequencies,
+                                       double[] trendScores, int topK) throws IOException {
+            RecordOrder popular = (a, b) -> frequencies[a] != frequencies[b]
+                    ? Integer.compare(frequencies[b], frequencies[a]) : Integer.compare(a, b);
+            RecordOrder trending = (a, b) -> trendScores[a] != trendScores[b]
+                    ? Double.compare(trendScores[b], trendScores[a]) : Integer.compare(a, b);
+
+            List<int[]> ranges = new ArrayList<>(); // {first, end, popular ids..., trending ids...}
+            Deque<LcpInterval> stack = new ArrayDeque<>();
+            stack.push(new LcpInterval(0, 0, new int[0], new int[0]));
+            for (int i = 1; i <= keys.length && !stack.isEmpty(); i++) {
+                int lcp = i == keys.length ? -1 : commonPrefix(keys[i - 1], keys[i]);
+                int first = i - 1;
+                int[] childPopular = {i - 1};
+                int[] childTrending = {i - 1};
+                while (!stack.isEmpty() && lcp < stack.peek().lcp) {
+                    LcpInterval closed = stack.pop();
+                    closed.popular = mergeTop(closed.popular, childPopular, topK, popular);
+                    closed.trending = mergeTop(closed.trending, childTrending, topK, trending);
+                    int end = i;
+                    // An interval with the same records as the child just written adds nothing
+                    if (end - closed.first > topK && (ranges.isEmpty()
+                            || ranges.get(ranges.size() - 1)[0] != closed.first
+                            || ranges.get(ranges.size() - 1)[1] != end)) {
+                        int[] range = new int[2 + 2 * topK];
+                        range[0] = closed.first;
+                        range[1] = end;
+                        System.arraycopy(closed.popular, 0, range, 2, topK);
+                        System.arraycopy(closed.trending, 0, range, 2 + topK, topK);
+                        ranges.add(range);
+                    }
+                    first = closed.first;
+                    childPopular = closed.popular;
+                    childTrending = closed.trending;
+                }
+                if (stack.isEmpty()) {
+                    break;
+                }
+                if (lcp > stack.peek().lcp) {
+                    stack.push(new LcpInterval(lcp, first, childPopular, childTrending));
+                } else {
+                    LcpInterval open = stack.peek();
+                    open.popular = mergeTop(open.popular, childPopular, topK, popular);
+                    open.trending = mergeTop(open.trending, childTrending, topK, trending);
+                }
+            }
+
+            ranges.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+            for (int[] range : ranges) {
+                for (int value : range) {
+                    out.writeInt(value);
+                }
+            }
+            return ranges.size();
+        }
+
+        private static final class LcpInterval {
+            final int lcp;
+            final int first;
+            int[] popular;
+            int[] trending;
+
+            LcpInterval(int lcp, int first, int[] popular, int[] trending) {
+                this.lcp = lcp;
+                this.first = first;
+                this.popular = popular;
+                this.trending = trending;
+            }
+        }
+
+        private static int commonPrefix(String a, String b) {
+            int limit = Math.min(a.length(), b.length());
+            int n = 0;
+            while (n < limit && a.charAt(n) == b.charAt(n)) {
+                n++;
+            }
+            return n;
+        }
+
+        // Best `limit` ids of two lists already sorted by `order`
+        private static int[] mergeTop(int[] a, int[] b, int limit, RecordOrder order) {
+            int[] merged = new int[Math.min(limit, a.length + b.length)];
+            int i = 0;
+            int j = 0;
+            for (int n = 0; n < merged.length; n++) {
+                merged[n] = j >= b.length || (i < a.length && order.compare(a[i], b[j]) < 0) ? a[i++] : b[j++];
+            }
+            return merged;
+        }
+
+        // Bytes written so far, as a long so that passing the int range is detectable
+        private static final class CountingOutputStream extends FilterOutputStream {
+            private long count;
+
+            CountingOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count += len;
+            }
+
+            int offset() throws IOException {
+                if (count > Integer.MAX_VALUE) {
+                    throw new IOException("Snapshot exceeds 2 GB");
+                }
+                return (int) count;
+            }
+        }
+
+        static QuerySnapshot map(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // The mapping stays valid after the channel is closed
+                return new QuerySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        // Visit every record in key order
+        void forEach(RecordVisitor visitor) {
+            Reader reader = new Reader(data.duplicate(), HEADER_BYTES);
+            for (int i = 0; i < entryCount; i++) {
+                reader.next();
+                visitor.accept(reader.key(), reader.frequency, reader.trendScore);
+            }
+        }
+
+        // Top-K for a prefix: two binary searches find its record range; a range larger than
+        // topK has its answer stored in the file, a smaller one is ranked by reading it.
+        // Only a limit above topK falls back to scanning a large range.
+        List<SearchSuggestion> search(String prefix, RankingMode mode, int limit) {
+            int first = lowerBound(prefix);
+            int end = prefixEnd(prefix, first);
+            if (first == end) {
+                return Collections.emptyList();
+            }
+            if (end - first > topK && limit <= topK) {
+                int range = findRange(first, end);
+                if (range >= 0) {
+                    int ids = rangesOffset + range * rangeBytes() + 8 + (mode == RankingMode.TRENDING ? 4 * topK : 0);
+                    List<SearchSuggestion> result = new ArrayList<>(limit);
+                    for (int n = 0; n < limit; n++) {
+                        result.add(suggestionAt(data.getInt(ids + 4 * n)));
+                    }
+                    return result;
+                }
+            }
+
+            PriorityQueue<SearchSuggestion> best = new PriorityQueue<>(limit + 1, mode.reversed());
+            Reader reader = readerAt(first);
+            for (int i = first; i < end; i++) {
+                if (i > first) {
+                    reader.next();
+                }
+                best.offer(new SearchSuggestion(reader.key(), reader.frequency, reader.trendScore));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            List<SearchSuggestion> result = new ArrayList<>(best);
+            result.sort(mode);
+            return result;
+        }
+
+        // First record whose key sorts at or after the prefix
+        private int lowerBound(String prefix) {
+            int low = 0;
+            int high = entryCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (readerAt(mid).key().compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // End of the run of keys starting with the prefix that begins at `first`
+        private int prefixEnd(String prefix, int first) {
+            int low = first;
+            int high = entryCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (readerAt(mid).key().startsWith(prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int rangeBytes() {
+            return 8 + 8 * topK;
+        }
+
+        // Index of the stored range [first, end), or -1
+        private int findRange(int first, int end) {
+            int low = 0;
+            int high = rangeCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int offset = rangesOffset + mid * rangeBytes();
+                int cmp = first != data.getInt(offset) ? Integer.compare(data.getInt(offset), first)
+                        : Integer.compare(data.getInt(offset + 4), end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private SearchSuggestion suggestionAt(int record) {
+            Reader reader = readerAt(record);
+            return new SearchSuggestion(reader.key(), reader.frequency, reader.trendScore);
+        }
+
+        // Reader positioned on the given record, decoded forward from its restart point
+        private Reader readerAt(int record) {
+            int restart = record / RESTART_INTERVAL;
+            Reader reader = new Reader(data.duplicate(), data.getInt(indexOffset + 4 * restart));
+            for (int i = restart * RESTART_INTERVAL; i <= record; i++) {
+                reader.next();
+            }
+            return reader;
+        }
+
+        long mappedBytes() {
+            return data.capacity();
+        }
+
+        private static final class Reader {
+            private final ByteBuffer buffer;
+            private byte[] key = new byte[64];
+            private int keyLength;
+            int frequency;
+            double trendScore;
+
+            Reader(ByteBuffer buffer, int position) {
+                this.buffer = buffer;
+                buffer.position(position);
+            }
+
+            void next() {
+                int shared = readVarInt(buffer);
+                int suffix = readVarInt(buffer);
+                keyLength = shared + suffix;
+                if (keyLength > key.length) {
+                    key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+                }
+                buffer.get(key, shared, suffix);
+                frequency = readVarInt(buffer);
+                trendScore = buffer.getDouble();
+            }
+
+            String key() {
+                return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+            }
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarInt(ByteBuffer buffer) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    // Shallow object sizes for a 64-bit JVM with compressed oops (12-byte headers,
+    // 4-byte references, 8-byte alignment), used to report retained memory
+    static final class MemoryLayout {
+        static final int OBJECT_HEADER = 12;
+        static final int ARRAY_HEADER = 16;
+        static final int REFERENCE = 4;
+
+        static long align(long bytes) {
+            return (bytes + 7) & ~7L;
+        }
+
+        static long object(int referenceFields, int primitiveBytes) {
+            return align(OBJECT_HEADER + (long) referenceFields * REFERENCE + primitiveBytes);
+        }
+
+        // Shallow size from the declared instance fields, so it follows the class as it changes
+        // (field padding and superclass fields are ignored; the classes measured have neither)
+        static long shallowSize(Class<?> type) {
+            int references = 0;
+            int primitiveBytes = 0;
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Class<?> fieldType = field.getType();
+                if (!fieldType.isPrimitive()) {
+                    references++;
+                } else if (fieldType == long.class || fieldType == double.class) {
+                    primitiveBytes += 8;
+                } else if (fieldType == int.class || fieldType == float.class) {
+                    primitiveBytes += 4;
+                } else if (fieldType == char.class || fieldType == short.class) {
+                    primitiveBytes += 2;
+                } else {
+                    primitiveBytes += 1;
+                }
+            }
+            return object(references, primitiveBytes);
+        }
+
+        static long intArray(int length) {
+            return align(ARRAY_HEADER + 4L * length);
+        }
+
+        static long charArray(int length) {
+            return align(ARRAY_HEADER + 2L * length);
+        }
+
+        static long referenceArray(int length) {
+            return align(ARRAY_HEADER + (long) REFERENCE * length);
+        }
+
+        // String object plus its compact (Latin-1) or UTF-16 backing array
+        static long string(String value) {
+            boolean latin1 = value.chars().allMatch(c -> c < 256);
+            long data = latin1 ? value.length() : 2L * value.length();
+            return object(1, 8) + align(ARRAY_HEADER + data);
+        }
+    }
+
+    // Cached prefix result. Entries pin the trie node they came from, and the node's
+    // current TopK snapshot is the version: updates publish a new snapshot, so a
+    // hit always returns the latest ranking without any invalidation on write.
+    // Entries built from a frozen snapshot stay valid only while that snapshot is installed.
+    static final class CacheEntry {
+        final TrieNode node;
+        final CompactTrie snapshot;
+        final List<SearchSuggestion> snapshotResult;
+        // CLOCK reference bit
+        volatile boolean referenced;
+
+        CacheEntry(TrieNode node) {
+            this(node, null, null);
+        }
+
+        CacheEntry(CompactTrie snapshot, List<SearchSuggestion> snapshotResult) {
+            this(null, snapshot, snapshotResult);
+        }
+
+        private CacheEntry(TrieNode node, CompactTrie snapshot, List<SearchSuggestion> snapshotResult) {
+            this.node = node;
+            this.snapshot = snapshot;
+            this.snapshotResult = snapshotResult;
+        }
+
+        // Current result, or null if this entry cannot answer (its snapshot is gone,
+        // or it is a snapshot entry and the snapshot only holds the popular ranking)
+        List<SearchSuggestion> current(CompactTrie installed, RankingMode mode) {
+            if (node != null) {
+                return node.ranking(mode).view;
+            }
+            return snapshot == installed && mode == RankingMode.POPULAR ? snapshotResult : null;
         }
     }
 
     static class SearchSuggestion implements Comparable<SearchSuggestion> {
-        String query;
-        int frequency;
+        final String query;
+        final int frequency;
+        // Log of the decayed count, measured against a fixed epoch (see updateFrequency)
+        final double trendScore;
 
         public SearchSuggestion(String query, int frequency) {
+            this(query, frequency, Double.NEGATIVE_INFINITY);
+        }
+
+        public SearchSuggestion(String query, int frequency, double trendScore) {
             this.query = query;
             this.frequency = frequency;
+            this.trendScore = trendScore;
         }
 
         @Override
@@ -48,157 +1295,496 @@ public class AutocompleteSystem {
     }
 
     public AutocompleteSystem() {
+        this(DEFAULT_HALF_LIFE_MILLIS, System::currentTimeMillis);
+    }
+
+    // Trending scores halve every halfLifeMillis of the given clock
+    public AutocompleteSystem(long halfLifeMillis, LongSupplier clock) {
+        if (halfLifeMillis <= 0) {
+            throw new IllegalArgumentException("halfLifeMillis must be positive: " + halfLifeMillis);
+        }
+        this.decayRate = Math.log(2) / halfLifeMillis;
+        this.clock = clock;
         this.queryFrequency = new ConcurrentHashMap<>();
         this.root = new TrieNode();
+        this.correctionIndex = new FuzzyIndex();
         this.prefixCache = new ConcurrentHashMap<>();
+        this.cacheClock = new ConcurrentLinkedQueue<>();
+        this.cacheQueued = ConcurrentHashMap.newKeySet();
+        this.admissionCounts = new AtomicIntegerArray(ADMISSION_SLOTS);
+        this.searchesSinceAging = new AtomicInteger();
         this.maxSuggestions = 10;
         this.cacheThreshold = 100; // Cache results for prefixes searched 100+ times
+        this.maxCacheEntries = 10_000;
+        this.compactIndex = new AtomicReference<>();
+        this.snapshotRebuild = CompletableFuture.completedFuture(null);
+        this.metrics = new SearchStats();
+    }
+
+    // Insert query into trie and record the update along its path
+    private void insertQuery(String query, int newFrequency, int count) {
+        TrieNode[] path = new TrieNode[query.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < query.length(); i++) {
+            path[i + 1] = path[i].getOrCreateChild(query.charAt(i));
+        }
+        recordUpdate(query, newFrequency, eventWeight(count, clock.getAsLong()), path, query.length());
+    }
+
+    // Forward decay: an event at time t weighs e^(rate * t). Every score shares the
+    // same epoch, so comparing stored scores ranks by decayed count without ever
+    // touching other queries, and scores only grow. Kept in log space to avoid overflow.
+    private double eventWeight(int count, long now) {
+        return decayRate * now + Math.log(count);
     }
 
-    // Insert query into trie
-    private void insertQuery(String query) {
-        TrieNode current = root;
+    // Add logWeight to the query's decayed score and refresh both rankings on every node
+    // of path[0..length] (root to terminal). Safe to call from many threads.
+    private void recordUpdate(String query, int newFrequency, double logWeight,
+                              TrieNode[] path, int length) {
+        TrieNode terminal = path[length];
+        double trendScore = terminal.addTrendScore(logWeight);
 
-        for (char ch : query.toLowerCase().toCharArray()) {
-            current.children.putIfAbsent(ch, new TrieNode());
-            current = current.children.get(ch);
+        if (!terminal.isEndOfWord) {
+            // Publish query before the end marker so readers never see a null query
+            terminal.query = query;
+            terminal.isEndOfWord = true;
+            correctionIndex.add(query);
         }
 
-        current.isEndOfWord = true;
-        current.query = query;
+        SearchSuggestion suggestion = new SearchSuggestion(query, newFrequency, trendScore);
+        for (int i = 0; i <= length; i++) {
+            path[i].offer(suggestion, maxSuggestions);
+        }
     }
 
     // Update frequency and insert into trie
     public void updateFrequency(String query) {
+        updateFrequency(query, 1);
+    }
+
+    // Add count occurrences of a query at once
+    public void updateFrequency(String query, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
         query = query.toLowerCase().trim();
 
-        int newFrequency = queryFrequency.merge(query, 1, Integer::sum);
+        int newFrequency = queryFrequency.merge(query, count, Integer::sum);
+
+        // Walk the query path, creating nodes if new and updating each prefix's top-K.
+        // Cached prefixes see the new ranking through their pinned node, so nothing is invalidated.
+        insertQuery(query, newFrequency, count);
 
-        // Insert into trie if new query
-        if (newFrequency == 1) {
-            insertQuery(query);
+        dropCompactSnapshot();
+    }
+
+    // Batch ingest: normalizes each line once, pre-aggregates counts, then applies
+    // the distinct queries in one sorted pass (see applyCounts)
+    public void updateFrequencies(Iterable<String> queries) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String query : queries) {
+            aggregate(counts, query);
         }
+        applyCounts(counts);
+    }
+
+    // Streaming ingest of a query log, one query per element
+    public void ingest(Stream<String> queries) {
+        Map<String, Integer> counts = new HashMap<>();
+        queries.forEach(query -> aggregate(counts, query));
+        applyCounts(counts);
+    }
 
-        // Invalidate cache for all prefixes of this query
-        for (int i = 1; i <= query.length(); i++) {
-            String prefix = query.substring(0, i);
-            prefixCache.remove(prefix);
+    // Ingest a query log file, one query per line (UTF-8)
+    public void ingestFile(Path logFile) throws IOException {
+        try (Stream<String> lines = Files.lines(logFile, StandardCharsets.UTF_8)) {
+            ingest(lines);
         }
     }
 
-    // Search for suggestions with prefix
-    public List<SearchSuggestion> search(String prefix) {
-        long startTime = System.nanoTime();
+    private static void aggregate(Map<String, Integer> counts, String query) {
+        query = query.toLowerCase().trim();
+        if (!query.isEmpty()) {
+            counts.merge(query, 1, Integer::sum);
+        }
+    }
 
-        prefix = prefix.toLowerCase().trim();
+    // Apply pre-aggregated counts in sorted key order. Consecutive keys share the path
+    // of their common prefix, so each trie level is resolved once per run of keys, and
+    // the whole batch shares one timestamp and one snapshot invalidation.
+    private void applyCounts(Map<String, Integer> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        String[] keys = counts.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
 
-        // Check cache first
-        if (prefixCache.containsKey(prefix)) {
-            long elapsed = (System.nanoTime() - startTime) / 1_000_000;
-            System.out.println("Cache hit! Response time: " + elapsed + "ms");
-            return prefixCache.get(prefix);
+        long now = clock.getAsLong();
+        PathCursor cursor = new PathCursor(root);
+        for (String query : keys) {
+            int count = counts.get(query);
+            int newFrequency = queryFrequency.merge(query, count, Integer::sum);
+            recordUpdate(query, newFrequency, eventWeight(count, now), cursor.moveTo(query), query.length());
         }
 
-        // Find all queries with this prefix
-        List<SearchSuggestion> suggestions = new ArrayList<>();
-        TrieNode current = root;
+        dropCompactSnapshot();
+    }
+
+    // Resolves root-to-terminal paths for keys visited in sorted order, re-resolving
+    // only the part after the common prefix with the previous key
+    static final class PathCursor {
+        private TrieNode[] path = new TrieNode[32];
+        private String previous = "";
 
-        // Navigate to prefix node
-        for (char ch : prefix.toCharArray()) {
-            current = current.children.get(ch);
-            if (current == null) {
-                return suggestions; // No matches
+        PathCursor(TrieNode root) {
+            path[0] = root;
+        }
+
+        // Returns path with path[0..query.length()] filled in (valid until the next call)
+        TrieNode[] moveTo(String query) {
+            if (path.length <= query.length()) {
+                path = Arrays.copyOf(path, query.length() * 2);
+            }
+            int shared = 0;
+            int limit = Math.min(previous.length(), query.length());
+            while (shared < limit && previous.charAt(shared) == query.charAt(shared)) {
+                shared++;
+            }
+            for (int i = shared; i < query.length(); i++) {
+                path[i + 1] = path[i].getOrCreateChild(query.charAt(i));
             }
+            previous = query;
+            return path;
         }
+    }
+
+    // Write every query, its count and its decayed score to a sorted, front-coded file.
+    // The file is written next to the target and moved into place, so readers never
+    // see a partial snapshot. Concurrent updates may or may not be included.
+    public void saveSnapshot(Path file) throws IOException {
+        String[] keys = queryFrequency.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        int[] frequencies = new int[keys.length];
+        double[] trendScores = new double[keys.length];
+        PathCursor cursor = new PathCursor(root);
+        for (int i = 0; i < keys.length; i++) {
+            frequencies[i] = queryFrequency.getOrDefault(keys[i], 0);
+            TrieNode terminal = cursor.moveTo(keys[i])[keys[i].length()];
+            trendScores[i] = Double.longBitsToDouble(terminal.trendScoreBits);
+        }
+        QuerySnapshot.write(file, decayRate, keys, frequencies, trendScores, maxSuggestions);
+    }
 
-        // Collect all queries with this prefix
-        collectQueries(current, suggestions);
+    // Save a snapshot every periodMillis on a shared background thread; failures are
+    // reported and the next period tries again. Cancel the returned future to stop.
+    public ScheduledFuture<?> scheduleSnapshots(Path file, long periodMillis) {
+        return SNAPSHOT_SCHEDULER.scheduleAtFixedRate(() -> {
+            try {
+                saveSnapshot(file);
+            } catch (IOException e) {
+                System.err.println("Autocomplete snapshot to " + file + " failed: " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Fast startup: map the snapshot and serve searches from it right away, while a
+    // background thread replays it into the live trie. Once the replay finishes, searches
+    // switch to the trie and the mapping is released. Updates made meanwhile go to the
+    // trie and show up in results after the switch.
+    public static AutocompleteSystem loadSnapshot(Path file) throws IOException {
+        return loadSnapshot(file, System::currentTimeMillis);
+    }
 
-        // Sort by frequency and get top N using min-heap
-        PriorityQueue<SearchSuggestion> topK = new PriorityQueue<>(
-                Comparator.comparingInt((SearchSuggestion s) -> s.frequency)
-                        .thenComparing(s -> s.query, Comparator.reverseOrder())
-        );
+    // Same, for a system whose decayed scores run on the given clock
+    public static AutocompleteSystem loadSnapshot(Path file, LongSupplier clock) throws IOException {
+        QuerySnapshot snapshot = QuerySnapshot.map(file);
+        AutocompleteSystem autocomplete = new AutocompleteSystem(
+                Math.round(Math.log(2) / snapshot.decayRate), clock);
+        autocomplete.mappedSnapshot = snapshot;
+        autocomplete.snapshotRebuild = CompletableFuture.runAsync(() -> {
+            autocomplete.replay(snapshot);
+            autocomplete.mappedSnapshot = null;
+        }, command -> {
+            Thread rebuild = new Thread(command, "autocomplete-snapshot-rebuild");
+            rebuild.setDaemon(true);
+            rebuild.start();
+        });
+        return autocomplete;
+    }
+
+    // Block until a snapshot loaded with loadSnapshot has been replayed into the trie
+    public void awaitSnapshotRebuild() {
+        snapshotRebuild.join();
+    }
 
-        for (SearchSuggestion suggestion : suggestions) {
-            topK.offer(suggestion);
-            if (topK.size() > maxSuggestions) {
-                topK.poll();
+    public boolean isServingFromSnapshot() {
+        return mappedSnapshot != null;
+    }
+
+    // Records are already sorted, so they go straight through the shared-prefix path walk
+    private void replay(QuerySnapshot snapshot) {
+        PathCursor cursor = new PathCursor(root);
+        snapshot.forEach((query, frequency, trendScore) -> {
+            int newFrequency = queryFrequency.merge(query, frequency, Integer::sum);
+            recordUpdate(query, newFrequency, trendScore, cursor.moveTo(query), query.length());
+        });
+        dropCompactSnapshot();
+    }
+
+    // Any frozen snapshot is now stale (this also aborts a snapshot build in progress)
+    private void dropCompactSnapshot() {
+        if (compactIndex.get() != null) {
+            compactIndex.set(null);
+        }
+    }
+
+    // Search for suggestions with prefix
+    public List<SearchSuggestion> search(String prefix) {
+        return search(prefix, RankingMode.POPULAR);
+    }
+
+    // Search ranked by lifetime count (POPULAR) or by decayed count (TRENDING)
+    public List<SearchSuggestion> search(String prefix, RankingMode mode) {
+        SearchMetrics searchMetrics = metrics;
+        long startTime = System.nanoTime();
+
+        prefix = prefix.toLowerCase().trim();
+
+        // Check cache first
+        CompactTrie compact = compactIndex.get();
+        CacheEntry cached = prefixCache.get(prefix);
+        if (cached != null) {
+            List<SearchSuggestion> result = cached.current(compact, mode);
+            if (result != null) {
+                if (!cached.referenced) {
+                    cached.referenced = true;
+                }
+                searchMetrics.recordSearch(System.nanoTime() - startTime, true, 0);
+                return result;
+            }
+            if (cached.node == null && cached.snapshot != compact) {
+                prefixCache.remove(prefix, cached);
             }
         }
 
-        // Build result in descending order
-        List<SearchSuggestion> result = new ArrayList<>(topK);
-        result.sort(Collections.reverseOrder());
+        // Still warming up from a snapshot file: answer from the mapping, don't cache
+        QuerySnapshot mapped = mappedSnapshot;
+        if (mapped != null) {
+            List<SearchSuggestion> result = mapped.search(prefix, mode, maxSuggestions);
+            searchMetrics.recordSearch(System.nanoTime() - startTime, false, prefix.length());
+            return result;
+        }
 
-        // Cache if this prefix is searched frequently
-        prefixCache.put(prefix, result);
+        // The frozen snapshot only carries the popular ranking
+        List<SearchSuggestion> result;
+        TrieNode node = null;
+        int depth;
+        if (mode == RankingMode.POPULAR && compact != null && compact != CompactTrie.PENDING) {
+            result = compact.search(prefix);
+            depth = prefix.length();
+        } else {
+            // Navigate to prefix node; its top-K already holds the answer
+            node = root;
+            depth = 0;
+            while (node != null && depth < prefix.length()) {
+                node = node.getChild(prefix.charAt(depth++));
+            }
+            result = node != null ? node.ranking(mode).view : Collections.<SearchSuggestion>emptyList();
+        }
 
-        long elapsed = (System.nanoTime() - startTime) / 1_000_000;
-        System.out.println("Response time: " + elapsed + "ms");
+        // Cache if this prefix is searched frequently (no matches are never cached)
+        if (!result.isEmpty() && shouldAdmit(prefix)) {
+            admitToCache(prefix, node != null ? new CacheEntry(node) : new CacheEntry(compact, result));
+        }
 
+        searchMetrics.recordSearch(System.nanoTime() - startTime, false, depth);
         return result;
     }
 
-    // Collect all queries from trie node
-    private void collectQueries(TrieNode node, List<SearchSuggestion> results) {
-        if (node.isEndOfWord) {
-            int frequency = queryFrequency.getOrDefault(node.query, 0);
-            results.add(new SearchSuggestion(node.query, frequency));
+    // Replace the instrumentation hook (use SearchMetrics.NONE to turn it off)
+    public void setMetrics(SearchMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Count this search and admit the prefix once it reaches cacheThreshold.
+    // Counts live in a small hashed table (collisions only admit early) and are
+    // halved periodically so old popularity fades.
+    private boolean shouldAdmit(String prefix) {
+        int hash = prefix.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (ADMISSION_SLOTS - 1);
+        int count = admissionCounts.incrementAndGet(slot);
+
+        if (searchesSinceAging.incrementAndGet() >= ADMISSION_SLOTS * 16) {
+            searchesSinceAging.set(0);
+            for (int i = 0; i < ADMISSION_SLOTS; i++) {
+                admissionCounts.set(i, admissionCounts.get(i) >>> 1);
+            }
         }
+        return count >= cacheThreshold;
+    }
 
-        for (TrieNode child : node.children.values()) {
-            collectQueries(child, results);
+    // Insert and evict with CLOCK: referenced entries get a second chance.
+    // The entry is put before its key is marked queued, and a polled key is unmarked before
+    // its entry is looked up, so a key that fails to queue is always seen by that eviction.
+    private void admitToCache(String prefix, CacheEntry entry) {
+        prefixCache.put(prefix, entry);
+        if (cacheQueued.add(prefix)) {
+            cacheClock.offer(prefix);
+        }
+        while (prefixCache.size() > maxCacheEntries) {
+            String candidate = cacheClock.poll();
+            if (candidate == null) {
+                return;
+            }
+            cacheQueued.remove(candidate);
+            CacheEntry victim = prefixCache.get(candidate);
+            if (victim != null && victim.referenced) {
+                victim.referenced = false;
+                if (cacheQueued.add(candidate)) {
+                    cacheClock.offer(candidate);
+                }
+            } else if (victim != null) {
+                prefixCache.remove(candidate, victim);
+            }
         }
     }
 
-    // Simple typo correction using edit distance
-    public List<String> suggestCorrections(String query) {
-        List<String> corrections = new ArrayList<>();
+    int cachedPrefixCount() {
+        return prefixCache.size();
+    }
+
+    void clearPrefixCache() {
+        prefixCache.clear();
+        cacheClock.clear();
+        cacheQueued.clear();
+    }
+
+    // Freeze the live trie into a compact radix snapshot and serve searches from it
+    // until the next update. Returns null if an update raced with the build.
+    public CompactTrie compact() {
+        compactIndex.set(CompactTrie.PENDING);
+        CompactTrie built = CompactTrie.build(root);
+        return compactIndex.compareAndSet(CompactTrie.PENDING, built) ? built : null;
+    }
 
-        for (String knownQuery : queryFrequency.keySet()) {
-            if (editDistance(query.toLowerCase(), knownQuery.toLowerCase()) <= 2) {
-                corrections.add(knownQuery);
+    // Count queries reachable in the trie (used to verify concurrent ingest)
+    int countTrieQueries() {
+        int count = 0;
+        Deque<TrieNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            TrieNode node = stack.pop();
+            if (node.isEndOfWord) {
+                count++;
+            }
+            for (TrieNode child : node.childNodes()) {
+                stack.push(child);
             }
         }
+        return count;
+    }
 
-        corrections.sort((a, b) -> Integer.compare(
-                queryFrequency.get(b), queryFrequency.get(a)
-        ));
-
-        return corrections.subList(0, Math.min(5, corrections.size()));
+    // Typo correction: up to 5 known queries within 2 edits, most popular first
+    public List<String> suggestCorrections(String query) {
+        return correctionIndex.lookup(query.toLowerCase().trim(), 5, queryFrequency);
     }
 
-    // Calculate Levenshtein distance
-    private int editDistance(String s1, String s2) {
-        int[][] dp = new int[s1.length() + 1][s2.length() + 1];
+    // Retained heap of the trie, frequency table, prefix cache, correction index and any frozen
+    // snapshot. Objects shared between structures (query strings, suggestions) are counted once.
+    public long estimateMemoryUsage() {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        long total = 0;
 
-        for (int i = 0; i <= s1.length(); i++) {
-            dp[i][0] = i;
+        // Live trie
+        Deque<TrieNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            TrieNode node = stack.pop();
+            total += TrieNode.SHALLOW_SIZE;
+            ChildTable children = node.children;
+            if (seen.add(children)) {
+                total += ChildTable.SHALLOW_SIZE + MemoryLayout.charArray(children.labels.length)
+                        + MemoryLayout.referenceArray(children.nodes.length);
+            }
+            for (TopK topK : new TopK[]{node.topK, node.trendingTopK}) {
+                if (seen.add(topK)) {
+                    // TopK + items array + unmodifiable wrapper + Arrays.asList view
+                    total += TopK.SHALLOW_SIZE + MemoryLayout.referenceArray(topK.items.length)
+                            + MemoryLayout.object(2, 0) + MemoryLayout.object(1, 0);
+                    seen.add(topK.view);
+                    for (SearchSuggestion suggestion : topK.items) {
+                        total += suggestionSize(suggestion, seen);
+                    }
+                }
+            }
+            if (node.query != null && seen.add(node.query)) {
+                total += MemoryLayout.string(node.query);
+            }
+            for (TrieNode child : node.childNodes()) {
+                stack.push(child);
+            }
         }
-        for (int j = 0; j <= s2.length(); j++) {
-            dp[0][j] = j;
+
+        // Frequency table: bin array, one node per entry, boxed counts outside the Integer cache
+        total += hashTableSize(queryFrequency.size());
+        for (Map.Entry<String, Integer> entry : queryFrequency.entrySet()) {
+            total += MemoryLayout.object(3, 4);
+            if (seen.add(entry.getKey())) {
+                total += MemoryLayout.string(entry.getKey());
+            }
+            if (entry.getValue() > 127 && seen.add(entry.getValue())) {
+                total += MemoryLayout.object(0, 4);
+            }
         }
 
-        for (int i = 1; i <= s1.length(); i++) {
-            for (int j = 1; j <= s2.length(); j++) {
-                if (s1.charAt(i - 1) == s2.charAt(j - 1)) {
-                    dp[i][j] = dp[i - 1][j - 1];
-                } else {
-                    dp[i][j] = 1 + Math.min(dp[i - 1][j - 1],
-                            Math.min(dp[i - 1][j], dp[i][j - 1]));
+        // Prefix cache: keys, entries, CLOCK queue nodes and queued-key set, admission counters,
+        // and any snapshot result lists (live entries share the trie node's list)
+        total += hashTableSize(prefixCache.size()) + hashTableSize(cacheQueued.size())
+                + MemoryLayout.intArray(ADMISSION_SLOTS);
+        for (Map.Entry<String, CacheEntry> entry : prefixCache.entrySet()) {
+            total += 2 * MemoryLayout.object(3, 4) + MemoryLayout.object(3, 1) + MemoryLayout.object(2, 0);
+            if (seen.add(entry.getKey())) {
+                total += MemoryLayout.string(entry.getKey());
+            }
+            List<SearchSuggestion> list = entry.getValue().snapshotResult;
+            if (list != null && seen.add(list)) {
+                total += MemoryLayout.object(1, 8) + MemoryLayout.referenceArray(list.size());
+                for (SearchSuggestion suggestion : list) {
+                    total += suggestionSize(suggestion, seen);
                 }
             }
         }
 
-        return dp[s1.length()][s2.length()];
+        CompactTrie compact = compactIndex.get();
+        if (compact != null && compact != CompactTrie.PENDING) {
+            total += compact.retainedSizeBytes();
+        }
+        return total + correctionIndex.retainedSizeBytes();
     }
 
-    // Get memory usage estimate
-    public long estimateMemoryUsage() {
-        long queryMemory = queryFrequency.size() * 50; // Avg 30 chars + overhead
-        long cacheMemory = prefixCache.size() * 200; // Cached results
-        return queryMemory + cacheMemory;
+    private static long suggestionSize(SearchSuggestion suggestion, Set<Object> seen) {
+        if (!seen.add(suggestion)) {
+            return 0;
+        }
+        long size = MemoryLayout.object(1, 12);
+        if (seen.add(suggestion.query)) {
+            size += MemoryLayout.string(suggestion.query);
+        }
+        return size;
+    }
+
+    // ConcurrentHashMap bin array: power-of-two capacity at 0.75 load factor
+    private static long hashTableSize(int entries) {
+        if (entries == 0) {
+            return 0;
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, (int) (entries / 0.75f)) * 2 - 1);
+        return MemoryLayout.referenceArray(capacity);
     }
 
     public static void main(String[] args) {
@@ -225,11 +1811,11 @@ public class AutocompleteSystem {
         }
 
         // Set frequencies manually for demo
-        autocomplete.queryFrequency.put("java tutorial", 1234567);
-        autocomplete.queryFrequency.put("javascript", 987654);
-        autocomplete.queryFrequency.put("java download", 456789);
-        autocomplete.queryFrequency.put("java 21 features", 123456);
-        autocomplete.queryFrequency.put("java spring boot", 98765);
+        setDemoFrequency(autocomplete, "java tutorial", 1234567);
+        setDemoFrequency(autocomplete, "javascript", 987654);
+        setDemoFrequency(autocomplete, "java download", 456789);
+        setDemoFrequency(autocomplete, "java 21 features", 123456);
+        setDemoFrequency(autocomplete, "java spring boot", 98765);
 
         // Search
         System.out.println("Search results for 'jav':");
@@ -245,10 +1831,398 @@ public class AutocompleteSystem {
             System.out.println("Frequency: " + autocomplete.queryFrequency.get("java 21 features"));
         }
 
+        // Decayed ranking on a simulated clock: yesterday's hit vs. today's burst
+        System.out.println("\nPopular vs. trending after a day (1h half-life):");
+        trendingDemo();
+
+        // Cached prefixes stay correct across updates without invalidation
+        System.out.println("\nVersioned prefix cache:");
+        for (int i = 0; i < autocomplete.cacheThreshold; i++) {
+            autocomplete.search("java 2");
+        }
+        System.out.println("Cached prefixes: " + autocomplete.cachedPrefixCount());
+        autocomplete.updateFrequency("java 21 features");
+        System.out.println("After update: " + autocomplete.search("java 2"));
+        // Entries dropped as stale and admitted again must not pile up in the CLOCK queue
+        autocomplete.compact();
+        for (int i = 0; i < autocomplete.cacheThreshold; i++) {
+            autocomplete.search("java 21");
+        }
+        for (int i = 0; i < 50; i++) {
+            autocomplete.updateFrequency("java 21 features");
+            autocomplete.compact();
+            autocomplete.search("java 21");
+        }
+        System.out.println("After 50 update/snapshot rounds: " + autocomplete.cachedPrefixCount()
+                + " cached prefixes, " + autocomplete.cacheClock.size() + " in the CLOCK queue");
+
+        // Search instrumentation, queryable from code
+        System.out.println("\nSearch metrics: " + autocomplete.getMetrics());
+
         // Typo correction
         System.out.println("\nTypo corrections for 'jaav':");
         List<String> corrections = autocomplete.suggestCorrections("jaav");
         corrections.forEach(System.out::println);
+
+        // Batch vs. per-event ingest of the same query log
+        System.out.println("\nIngest benchmark:");
+        ingestBenchmark(200_000, 20_000);
+
+        // Save, then cold-start from the mapped snapshot
+        System.out.println("\nSnapshot persistence:");
+        snapshotDemo();
+
+        // Typo correction over a large query set
+        System.out.println("\nTypo correction over a large query set:");
+        typoCorrectionCheck(300_000);
+
+        // Compact snapshot: identical answers, smaller footprint
+        System.out.println("\nCompact radix snapshot:");
+        compactSnapshotCheck();
+
+        // Concurrent ingest stress test
+        System.out.println("\nConcurrent ingest stress test:");
+        System.out.println(concurrentIngestStressTest(8, 4, 20_000) ? "PASS" : "FAIL");
+    }
+
+    // Replays a skewed query log through updateFrequency per event and through
+    // updateFrequencies as one batch, checks both end states agree, and prints the timings
+    static void ingestBenchmark(int events, int distinctQueries) {
+        Random random = new Random(11);
+        List<String> log = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            // Squaring a uniform draw skews traffic toward low ids, like a real query log
+            double u = random.nextDouble();
+            int id = (int) (u * u * distinctQueries);
+            log.add("Query " + (id % 97) + " topic " + id + " ");
+        }
+
+        long[] perEventNanos = new long[3];
+        long[] batchNanos = new long[3];
+        AutocompleteSystem perEvent = null;
+        AutocompleteSystem batch = null;
+        for (int round = 0; round < 3; round++) {
+            perEvent = new AutocompleteSystem();
+            long start = System.nanoTime();
+            for (String query : log) {
+                perEvent.updateFrequency(query);
+            }
+            perEventNanos[round] = System.nanoTime() - start;
+
+            batch = new AutocompleteSystem();
+            start = System.nanoTime();
+            batch.updateFrequencies(log);
+            batchNanos[round] = System.nanoTime() - start;
+        }
+
+        boolean same = perEvent.queryFrequency.equals(batch.queryFrequency)
+                && sameRanking(perEvent.search("query 1"), batch.search("query 1"))
+                && sameRanking(perEvent.search(""), batch.search(""));
+
+        System.out.printf("%,d events, %,d distinct: per-event %.1f ms, batch %.1f ms (best of 3), same result: %b%n",
+                events, batch.queryFrequency.size(),
+                Arrays.stream(perEventNanos).min().getAsLong() / 1e6,
+                Arrays.stream(batchNanos).min().getAsLong() / 1e6, same);
+    }
+
+    static void snapshotDemo() {
+        AutocompleteSystem original = new AutocompleteSystem();
+        Random random = new Random(3);
+        List<String> log = new ArrayList<>();
+        for (int i = 0; i < 300_000; i++) {
+            log.add("query " + (int) Math.pow(random.nextInt(1000), 2) + " result " + random.nextInt(50));
+        }
+        original.updateFrequencies(log);
+
+        try {
+            Path file = Files.createTempFile("autocomplete", ".snapshot");
+            long start = System.nanoTime();
+            original.saveSnapshot(file);
+            long saveNanos = System.nanoTime() - start;
+
+            // Every prefix of a sample of queries, answered from the mapping alone
+            QuerySnapshot mapped = QuerySnapshot.map(file);
+            List<String> known = new ArrayList<>(original.queryFrequency.keySet());
+            Set<String> prefixes = new TreeSet<>(Arrays.asList("", "q", "x", "query 1", "query 99 result 4"));
+            for (int i = 0; i < 200; i++) {
+                String query = known.get(random.nextInt(known.size()));
+                for (int length = 0; length <= query.length(); length++) {
+                    prefixes.add(query.substring(0, length).trim()); // as search() normalizes it
+                }
+            }
+            boolean mappedMatches = true;
+            for (String prefix : prefixes) {
+                for (RankingMode mode : RankingMode.values()) {
+                    mappedMatches &= sameRanking(original.search(prefix, mode),
+                            mapped.search(prefix, mode, original.maxSuggestions));
+                }
+            }
+            long mappedNanos = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long roundStart = System.nanoTime();
+                for (int i = 0; i < 1000; i++) {
+                    mapped.search("q", RankingMode.POPULAR, original.maxSuggestions);
+                }
+                mappedNanos = Math.min(mappedNanos, (System.nanoTime() - roundStart) / 1000);
+            }
+
+            start = System.nanoTime();
+            AutocompleteSystem restored = loadSnapshot(file);
+            long loadNanos = System.nanoTime() - start;
+
+            boolean fromSnapshot = restored.isServingFromSnapshot();
+            boolean sameWhileWarming = sameRanking(original.search("query 1"), restored.search("query 1"))
+                    && sameRanking(original.search("query 99", RankingMode.TRENDING),
+                    restored.search("query 99", RankingMode.TRENDING));
+            restored.awaitSnapshotRebuild();
+            long warmNanos = System.nanoTime() - start;
+            boolean sameWhenWarm = sameRanking(original.search(""), restored.search(""))
+                    && original.queryFrequency.equals(restored.queryFrequency);
+
+            System.out.printf("%,d queries, %,d bytes on disk; save %.1f ms, load %.1f ms, fully warm %.1f ms%n",
+                    original.queryFrequency.size(), Files.size(file),
+                    saveNanos / 1e6, loadNanos / 1e6, warmNanos / 1e6);
+            System.out.printf("Mapped search: %d prefixes x 2 rankings match the trie: %b, search(\"q\") %.1f us%n",
+                    prefixes.size(), mappedMatches, mappedNanos / 1e3);
+            System.out.println("Served from snapshot: " + fromSnapshot
+                    + ", same results while warming: " + sameWhileWarming
+                    + ", same results when warm: " + sameWhenWarm);
+            Files.delete(file);
+        } catch (IOException e) {
+            System.out.println("Snapshot demo failed: " + e.getMessage());
+        }
+    }
+
+    static void trendingDemo() {
+        long[] now = {0};
+        AutocompleteSystem trending = new AutocompleteSystem(60 * 60 * 1000, () -> now[0]);
+        trending.updateFrequency("java tutorial", 1_000_000);
+        trending.updateFrequency("java download", 400_000);
+
+        now[0] += 24 * 60 * 60 * 1000; // one day later
+        trending.updateFrequency("java 21 features", 5_000);
+        trending.updateFrequency("java download", 100);
+
+        List<SearchSuggestion> popular = trending.search("java", RankingMode.POPULAR);
+        List<SearchSuggestion> hot = trending.search("java", RankingMode.TRENDING);
+        System.out.println("POPULAR:  " + popular);
+        System.out.println("TRENDING: " + hot);
+    }
+
+    // Compares trie-walk corrections with a brute-force scan and reports lookup latency
+    static void typoCorrectionCheck(int queryCount) {
+        AutocompleteSystem autocomplete = new AutocompleteSystem();
+        Random random = new Random(7);
+        for (int i = 0; i < queryCount; i++) {
+            StringBuilder query = new StringBuilder();
+            int length = 6 + random.nextInt(12);
+            for (int c = 0; c < length; c++) {
+                query.append((char) ('a' + random.nextInt(26)));
+            }
+            autocomplete.updateFrequency(query.toString(), 1 + random.nextInt(1000));
+        }
+
+        List<String> known = new ArrayList<>(autocomplete.queryFrequency.keySet());
+        int[] rowA = new int[64];
+        int[] rowB = new int[64];
+        boolean matchesBruteForce = true;
+        long totalNanos = 0;
+        int warmup = 200;
+        int lookups = 250;
+        for (int i = 0; i < lookups; i++) {
+            // Misspell a known query with one substitution and one deletion
+            char[] chars = known.get(random.nextInt(known.size())).toCharArray();
+            chars[random.nextInt(chars.length)] = 'z';
+            String typo = new String(chars).substring(1);
+
+            long start = System.nanoTime();
+            List<String> corrections = autocomplete.suggestCorrections(typo);
+            if (i >= warmup) {
+                totalNanos += System.nanoTime() - start;
+            }
+
+            List<String> expected = new ArrayList<>();
+            for (String candidate : known) {
+                if (boundedEditDistance(candidate, typo, MAX_CORRECTION_EDITS, rowA, rowB)
+                        <= MAX_CORRECTION_EDITS) {
+                    expected.add(candidate);
+                }
+            }
+            expected.sort((a, b) -> {
+                int byFrequency = Integer.compare(
+                        autocomplete.queryFrequency.get(b), autocomplete.queryFrequency.get(a));
+                return byFrequency != 0 ? byFrequency : a.compareTo(b);
+            });
+            matchesBruteForce &= corrections.equals(expected.subList(0, Math.min(5, expected.size())));
+        }
+
+        System.out.printf("%,d queries, %d lookups, avg %.3f ms after warm-up, matches brute force: %b%n",
+                known.size(), lookups - warmup, totalNanos / 1e6 / (lookups - warmup), matchesBruteForce);
+    }
+
+    // Brute-force reference for typoCorrectionCheck: Levenshtein distance with early exit,
+    // returning limit + 1 as soon as every cell in a row exceeds limit.
+    // Uses the caller's two rows (length >= b.length() + 1).
+    private static int boundedEditDistance(String a, String b, int limit, int[] previous, int[] current) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > limit) {
+            return limit + 1;
+        }
+
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            char ca = a.charAt(i - 1);
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= m; j++) {
+                int substitution = previous[j - 1] + (ca == b.charAt(j - 1) ? 0 : 1);
+                int value = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                current[j] = value;
+                if (value < rowMin) {
+                    rowMin = value;
+                }
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[m], limit + 1);
+    }
+
+    // Builds a synthetic query set, then compares live-trie and compact-snapshot searches
+    static void compactSnapshotCheck() {
+        AutocompleteSystem autocomplete = new AutocompleteSystem();
+        Random random = new Random(42);
+        String[] topics = {"java", "javascript", "python", "rust", "kotlin", "golang"};
+        String[] suffixes = {"tutorial", "download", "interview questions", "streams", "generics"};
+        for (int i = 0; i < 50_000; i++) {
+            String query = topics[random.nextInt(topics.length)] + " "
+                    + suffixes[random.nextInt(suffixes.length)] + " " + random.nextInt(5_000);
+            autocomplete.updateFrequency(query, 1 + random.nextInt(100));
+        }
+        String[] prefixes = {"", "j", "ja", "java", "java ", "javas", "python d", "rust s", "kotlin g", "x"};
+
+        List<List<SearchSuggestion>> liveResults = new ArrayList<>();
+        for (String prefix : prefixes) {
+            liveResults.add(autocomplete.search(prefix));
+        }
+        long liveBytes = autocomplete.estimateMemoryUsage();
+        autocomplete.clearPrefixCache();
+
+        // Searches now go through the installed snapshot
+        CompactTrie compact = autocomplete.compact();
+        boolean identical = true;
+        for (int i = 0; i < prefixes.length; i++) {
+            identical &= sameRanking(liveResults.get(i), autocomplete.search(prefixes[i]));
+        }
+
+        System.out.println("Queries: " + autocomplete.queryFrequency.size()
+                + ", radix nodes: " + compact.nodeCount()
+                + ", identical results: " + identical);
+        System.out.printf("Live trie + tables: %,d bytes, compact snapshot: %,d bytes%n",
+                liveBytes, compact.retainedSizeBytes());
+    }
+
+    private static boolean sameRanking(List<SearchSuggestion> a, List<SearchSuggestion> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).query.equals(b.get(i).query) || a.get(i).frequency != b.get(i).frequency) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Raise a query to the target count through updateFrequency so per-node top-K stays in sync
+    private static void setDemoFrequency(AutocompleteSystem autocomplete, String query, int target) {
+        int current = autocomplete.queryFrequency.getOrDefault(query, 0);
+        if (target > current) {
+            autocomplete.updateFrequency(query, target - current);
+        }
+    }
+
+    // Many writer threads insert overlapping queries while readers search;
+    // afterwards every distinct query must be present in both the trie and the frequency table
+    static boolean concurrentIngestStressTest(int writers, int readers, int queriesPerWriter) {
+        AutocompleteSystem autocomplete = new AutocompleteSystem();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger writersDone = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final int writerId = w;
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < queriesPerWriter; i++) {
+                    // Half the keys are shared between writers to force races on the same paths
+                    int key = (i % 2 == 0) ? i : writerId * queriesPerWriter + i;
+                    autocomplete.updateFrequency("query " + key);
+                }
+                writersDone.incrementAndGet();
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                while (writersDone.get() < writers) {
+                    autocomplete.search("query 1");
+                }
+            }));
+        }
+
+        try {
+            threads.forEach(Thread::start);
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        int expected = queriesPerWriter / 2 + writers * (queriesPerWriter / 2);
+        long totalFrequency = autocomplete.queryFrequency.values().stream()
+                .mapToLong(Integer::longValue).sum();
+        int inTrie = autocomplete.countTrieQueries();
+
+        System.out.println("Distinct queries expected: " + expected
+                + ", in frequency table: " + autocomplete.queryFrequency.size()
+                + ", in trie: " + inTrie);
+        System.out.println("Total updates expected: " + (long) writers * queriesPerWriter
+                + ", recorded: " + totalFrequency);
+
+        // Root top-K must match a brute-force ranking of the final frequencies
+        List<SearchSuggestion> bruteForce = new ArrayList<>();
+        autocomplete.queryFrequency.forEach((q, f) -> bruteForce.add(new SearchSuggestion(q, f)));
+        Collections.sort(bruteForce);
+        List<String> expectedTop = new ArrayList<>();
+        List<String> actualTop = new ArrayList<>();
+        bruteForce.subList(0, Math.min(autocomplete.maxSuggestions, bruteForce.size()))
+                .forEach(s -> expectedTop.add(s.query));
+        autocomplete.root.topK.view.forEach(s -> actualTop.add(s.query));
+        System.out.println("Top-K matches brute force: " + expectedTop.equals(actualTop));
+
+        return inTrie == expected
+                && expectedTop.equals(actualTop)
+                && autocomplete.queryFrequency.size() == expected
+                && totalFrequency == (long) writers * queriesPerWriter;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
 
@@ -1,19 +1,278 @@
 package WEEK1and2;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.lang.ref.WeakReference;
 
 public class DNSCache {
+    // Share of the capacity given to the admission window (W-TinyLFU); the rest is the main SLRU
+    private static final int WINDOW_PERCENT = 1;
+    // Share of the main space reserved for entries that were hit at least once after admission
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int READ_BUFFER_SIZE = 32;
+    // Pending reads in one stripe that trigger an asynchronous drain
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    private static final int READ_BUFFER_STRIPES =
+            Integer.highestOneBit(Math.min(64, 4 * Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    private static final int DEFAULT_TTL_SECONDS = 300;
+    private static final long UPSTREAM_LATENCY_MILLIS = 100;
+    // NXDOMAIN answers are cached for their own TTL, but never longer than this
+    private static final int MAX_NEGATIVE_TTL_SECONDS = 60;
+    // Upstream failures (timeouts, SERVFAIL) are remembered briefly so retries do not pile up
+    private static final int FAILURE_TTL_SECONDS = 5;
+    // Threads that complete asynchronous upstream queries (resolveAsync, refreshes) per cache
+    private static final int UPSTREAM_THREADS = 16;
+    // How often the timer wheel is advanced; expired entries go within about one tick
+    private static final long EXPIRY_TICK_MILLIS = 250;
+    // One daemon thread advances the timer wheels (and fires the snapshot timers) of every cache instance
+    private static final ScheduledExecutorService EXPIRY_SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dns-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // How an entry nearing or past its TTL is handled
+    public enum RefreshMode {
+        // Expire hard; the next caller blocks on upstream
+        NONE,
+        // Re-resolve in the background once a hit lands past refreshAheadFraction of the TTL
+        REFRESH_AHEAD,
+        // Keep serving an expired answer for up to maxStaleMillis while a background refresh runs
+        STALE_WHILE_REVALIDATE
+    }
+
+    // Slots the compact table's expiry sweep visits per timer tick
+    private static final int COMPACT_SWEEP_SLOTS = 1024;
+    // Returned by lookups when there is no usable cached answer (null is a cached NXDOMAIN)
+    private static final String NOT_CACHED = new String("<not cached>");
+
+    // Warm-start snapshot, hottest entries first (big-endian):
+    //   header:  int MAGIC, int VERSION, int entryCount
+    //   records: UTF domain, byte flags, address (int IPv4, or UTF text if FLAG_TEXT_ADDRESS),
+    //            long absolute expiry in epoch millis
+    private static final int SNAPSHOT_MAGIC = 0x444E5331; // "DNS1"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int FLAG_HOT = 1;          // entry was in the protected segment
+    private static final int FLAG_TEXT_ADDRESS = 2; // address is not IPv4
+
+    // Where cache misses and refreshes are answered from
+    public interface UpstreamResolver {
+        // Completes with the answer, or exceptionally if the upstream could not be queried
+        CompletableFuture<Answer> query(String domain);
+    }
+
+    // One upstream response: an address, or NXDOMAIN (null address), with the record's TTL
+    public static final class Answer {
+        final String ipAddress;
+        final int ttlSeconds;
+
+        private Answer(String ipAddress, int ttlSeconds) {
+            this.ipAddress = ipAddress;
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public static Answer address(String ipAddress, int ttlSeconds) {
+            return new Answer(Objects.requireNonNull(ipAddress), ttlSeconds);
+        }
+
+        public static Answer nxdomain(int negativeTtlSeconds) {
+            return new Answer(null, negativeTtlSeconds);
+        }
+
+        public boolean isNxdomain() {
+            return ipAddress == null;
+        }
+    }
+
+    // Local stand-in for a real upstream: answers after a fixed delay with a random 172.x
+    // address, and reports NXDOMAIN for names under the reserved .invalid TLD
+    public static class SimulatedResolver implements UpstreamResolver {
+        private final int ttlSeconds;
+        private final long latencyMillis;
+
+        public SimulatedResolver(int ttlSeconds) {
+            this(ttlSeconds, UPSTREAM_LATENCY_MILLIS);
+        }
+
+        public SimulatedResolver(int ttlSeconds, long latencyMillis) {
+            this.ttlSeconds = ttlSeconds;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public CompletableFuture<Answer> query(String domain) {
+            // No thread sleeps while the simulated query is outstanding; the (cheap) answer
+            // is built on the JDK's shared delay thread when the timer fires
+            return CompletableFuture.supplyAsync(() -> answer(domain),
+                    CompletableFuture.delayedExecutor(latencyMillis, TimeUnit.MILLISECONDS, Runnable::run));
+        }
+
+        private Answer answer(String domain) {
+            if (domain.endsWith(".invalid")) {
+                return Answer.nxdomain(ttlSeconds);
+            }
+            // Generate mock IP
+            Random rand = new Random();
+            return Answer.address(String.format("172.%d.%d.%d",
+                    rand.nextInt(256), rand.nextInt(256), rand.nextInt(256)), ttlSeconds);
+        }
+    }
+
+    // Snapshot of the counters; toString keeps the original one-line summary format
+    public static final class CacheStats {
+        private final long hits;
+        private final long staleHits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long upstreamQueries;
+        private final int upstreamInFlight;
+        private final int size;
+        private final long admissionRejections;
+        private final long hitP99Nanos;
+        private final long missP99Nanos;
+
+        private CacheStats(DNSCache dnsCache) {
+            this.hits = dnsCache.cacheHits.sum();
+            this.staleHits = dnsCache.staleHits.sum();
+            this.misses = dnsCache.cacheMisses.sum();
+            this.evictions = dnsCache.evictions.sum();
+            this.expirations = dnsCache.expirations.sum();
+            this.upstreamQueries = dnsCache.upstreamQueries.sum();
+            this.upstreamInFlight = dnsCache.upstreamInFlight.get();
+            this.size = dnsCache.size();
+            this.hitP99Nanos = dnsCache.hitLatency.percentileNanos(99);
+            this.missP99Nanos = dnsCache.missLatency.percentileNanos(99);
+            this.admissionRejections = dnsCache.admissionRejections.sum();
+        }
+
+        public long getHits() { return hits; }
+        public long getStaleHits() { return staleHits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getExpirations() { return expirations; }
+        public long getAdmissionRejections() { return admissionRejections; }
+        public long getUpstreamQueries() { return upstreamQueries; }
+        public int getUpstreamInFlight() { return upstreamInFlight; }
+        public int getSize() { return size; }
+        public long getHitP99Nanos() { return hitP99Nanos; }
+        public long getMissP99Nanos() { return missP99Nanos; }
+
+        public long getTotalLookups() {
+            return hits + misses;
+        }
+
+        public double getHitRate() {
+            long total = getTotalLookups();
+            return total > 0 ? (hits * 100.0 / total) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Hit Rate: %.1f%%, Total Lookups: %d", getHitRate(), getTotalLookups());
+        }
+    }
+
     private final ConcurrentHashMap<String, DNSEntry> cache;
     private final int maxCacheSize;
-    private final LinkedHashMap<String, Long> accessOrder; // For LRU
-    private long cacheHits;
-    private long cacheMisses;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    // New entries land in a small LRU window. Entries pushed out of the window enter the main
+    // segmented LRU: probation first, a hit moves them to protected. Eviction takes the
+    // probation LRU first, so one-off lookups cannot flush hot entries.
+    // All three queues are guarded by evictionLock.
+    private final AccessDeque window;
+    private final AccessDeque probation;
+    private final AccessDeque protectedSegment;
+    private final ReentrantLock evictionLock;
+    // Hits are recorded into lossy striped buffers and replayed under evictionLock,
+    // so the read path never blocks on the policy
+    private final ReadBuffer[] readBuffers;
+    private final AtomicBoolean drainScheduled;
+    private final Executor maintenanceExecutor;
+    // Upstream lookups in progress; concurrent misses for a domain share one query
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlightLookups;
+    // Statistics: LongAdders keep the hit path free of contended writes
+    private final LongAdder cacheHits;
+    private final LongAdder staleHits;
+    private final LongAdder cacheMisses;
+    private final LongAdder evictions;
+    private final LongAdder expirations;
+    private final LongAdder admissionRejections;
+    private final LongAdder upstreamQueries;
+    private final AtomicInteger upstreamInFlight;
+    private final LatencyHistogram hitLatency;
+    private final LatencyHistogram missLatency;
+    private final ThreadPoolExecutor upstreamExecutor;
+    private final UpstreamResolver resolver;
+    private final RefreshMode refreshMode;
+    private final double refreshAheadFraction;
+    private final long maxStaleMillis;
+    // Entries bucketed by removal time (expiry plus stale window), guarded by evictionLock
+    private final TimerWheel timerWheel;
+    // TinyLFU admission: when the main space is full, an entry leaving the window only displaces
+    // the main victim if the sketch says it is requested more often, so one-off lookups
+    // (crawlers, scans) cannot flush hot entries. Fed by misses and replayed hits under
+    // evictionLock. Fixed at construction; main() builds caches without it to compare
+    // against plain SLRU.
+    private final FrequencySketch sketch;
+    private final boolean admissionEnabled;
+    // Compact mode only: replaces the map, the SLRU segments and the timer wheel
+    private final CompactTable compactTable;
+    // Compact mode only: domains whose last refresh failed, with the time the next refresh may
+    // start (default mode keeps this on the entry). Pruned by expireEntries.
+    private final ConcurrentHashMap<String, Long> refreshBackoff;
 
     static class DNSEntry {
+        // Policy queue the entry is linked into (guarded by evictionLock)
+        static final int UNLINKED = 0;
+        static final int PROBATION = 1;
+        static final int PROTECTED = 2;
+        static final int WINDOW = 3;
+
         String domain;
-        String ipAddress;
+        String ipAddress; // null for a negative (NXDOMAIN or failed) entry
         long timestamp;
         long expiryTime;
+        // After a failed refresh, no new refresh starts before this time
+        volatile long refreshNotBefore;
+
+        DNSEntry prev;
+        DNSEntry next;
+        int queue;
+
+        // Timer wheel bucket links (guarded by evictionLock)
+        DNSEntry prevInBucket;
+        DNSEntry nextInBucket;
+        int bucket = TimerWheel.UNSCHEDULED;
+        long removalTime;
 
         public DNSEntry(String domain, String ipAddress, int ttlSeconds) {
             this.domain = domain;
@@ -22,131 +281,1194 @@ public class DNSCache {
             this.expiryTime = this.timestamp + (ttlSeconds * 1000L);
         }
 
+        // Restored entry with an absolute expiry
+        DNSEntry(String domain, String ipAddress, long timestamp, long expiryTime) {
+            this.domain = domain;
+            this.ipAddress = ipAddress;
+            this.timestamp = timestamp;
+            this.expiryTime = expiryTime;
+        }
+
         public boolean isExpired() {
             return System.currentTimeMillis() > expiryTime;
         }
     }
 
+    // Intrusive doubly-linked list in LRU -> MRU order
+    static class AccessDeque {
+        private DNSEntry head;
+        private DNSEntry tail;
+        private int size;
+
+        void addLast(DNSEntry entry) {
+            entry.prev = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+            size++;
+        }
+
+        void remove(DNSEntry entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            size--;
+        }
+
+        void moveToBack(DNSEntry entry) {
+            if (entry != tail) {
+                remove(entry);
+                addLast(entry);
+            }
+        }
+
+        DNSEntry peekFirst() {
+            return head;
+        }
+
+        List<DNSEntry> newestFirst() {
+            List<DNSEntry> entries = new ArrayList<>(size);
+            for (DNSEntry entry = tail; entry != null; entry = entry.prev) {
+                entries.add(entry);
+            }
+            return entries;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    // Hierarchical timing wheel. Each level has 64 buckets; level 0 buckets are 256ms wide and
+    // every level above is 64x coarser (16s, ~17min, ~18h per bucket). Advancing the clock only
+    // visits buckets whose span has passed: due entries are removed, the rest cascade down to a
+    // finer level. Scheduling and removal are O(1); expiry is amortised O(1) per entry.
+    static class TimerWheel {
+        static final int UNSCHEDULED = -1;
+        private static final int SLOT_BITS = 6;
+        private static final int SLOTS = 1 << SLOT_BITS;
+        private static final int[] SHIFTS = {8, 8 + SLOT_BITS, 8 + 2 * SLOT_BITS, 8 + 3 * SLOT_BITS};
+
+        private final DNSEntry[] heads = new DNSEntry[SHIFTS.length * SLOTS];
+        private long currentTime;
+
+        TimerWheel(long now) {
+            this.currentTime = now;
+        }
+
+        void schedule(DNSEntry entry, long removalTime) {
+            deschedule(entry);
+            entry.removalTime = removalTime;
+            long delay = removalTime - currentTime;
+            int level = 0;
+            while (level < SHIFTS.length - 1 && delay >= (1L << SHIFTS[level + 1])) {
+                level++;
+            }
+            // Past-due times land in the current bucket and go on the next advance;
+            // times beyond the top level wrap and are rescheduled when their bucket comes round
+            long ticks = Math.max(removalTime, currentTime) >>> SHIFTS[level];
+            int bucket = level * SLOTS + (int) (ticks & (SLOTS - 1));
+
+            entry.bucket = bucket;
+            entry.prevInBucket = null;
+            entry.nextInBucket = heads[bucket];
+            if (heads[bucket] != null) {
+                heads[bucket].prevInBucket = entry;
+            }
+            heads[bucket] = entry;
+        }
+
+        void deschedule(DNSEntry entry) {
+            if (entry.bucket == UNSCHEDULED) {
+                return;
+            }
+            if (entry.prevInBucket == null) {
+                heads[entry.bucket] = entry.nextInBucket;
+            } else {
+                entry.prevInBucket.nextInBucket = entry.nextInBucket;
+            }
+            if (entry.nextInBucket != null) {
+                entry.nextInBucket.prevInBucket = entry.prevInBucket;
+            }
+            entry.prevInBucket = null;
+            entry.nextInBucket = null;
+            entry.bucket = UNSCHEDULED;
+        }
+
+        // Move the clock to now and hand every due entry to onExpired
+        void advance(long now, Consumer<DNSEntry> onExpired) {
+            long previousTime = currentTime;
+            currentTime = now;
+            for (int level = 0; level < SHIFTS.length; level++) {
+                long previousTicks = previousTime >>> SHIFTS[level];
+                long delta = (now >>> SHIFTS[level]) - previousTicks;
+                if (delta <= 0) {
+                    break; // coarser levels cannot have moved either
+                }
+                int steps = (int) Math.min(delta + 1, SLOTS);
+                for (int step = 0; step < steps; step++) {
+                    int bucket = level * SLOTS + (int) ((previousTicks + step) & (SLOTS - 1));
+                    DNSEntry entry = heads[bucket];
+                    heads[bucket] = null;
+                    while (entry != null) {
+                        DNSEntry next = entry.nextInBucket;
+                        entry.prevInBucket = null;
+                        entry.nextInBucket = null;
+                        entry.bucket = UNSCHEDULED;
+                        if (entry.removalTime <= now) {
+                            onExpired.accept(entry);
+                        } else {
+                            schedule(entry, entry.removalTime);
+                        }
+                        entry = next;
+                    }
+                }
+            }
+        }
+    }
+
+    // TinyLFU frequency sketch: a Count-Min sketch of 4-bit counters (16 per long) with four
+    // hash rows. Once 10x maximumSize increments have been recorded every counter is halved,
+    // so the estimates follow recent popularity instead of all-time totals.
+    // Not thread-safe; guarded by evictionLock.
+    static class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int counterMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int words = Integer.highestOneBit(Math.max(16, Math.min(1 << 26, maximumSize)) * 2 - 1);
+            this.table = new long[words];
+            this.counterMask = words * 16 - 1;
+            this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(1, maximumSize));
+        }
+
+        static int spread(String key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private int counterIndex(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & counterMask;
+        }
+
+        // Estimated recent frequency, 0-15
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = counterIndex(hash, row);
+                int value = (int) (table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xF;
+                frequency = Math.min(frequency, value);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int counter = counterIndex(hash, row);
+                int shift = (counter & 15) << 2;
+                if (((table[counter >>> 4] >>> shift) & 0xF) != 0xF) {
+                    table[counter >>> 4] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                reset();
+            }
+        }
+
+        // Halve every counter (the mask drops the bit shifted in from the neighbouring counter)
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+    }
+
+    // Memory-compact store for very large working sets: one linear-probing table of parallel
+    // arrays (domain reference, IPv4 as an int, expiry as int seconds from the table's base
+    // time, a flags byte, a referenced byte), about 19 bytes per entry at the 0.75 load
+    // factor. Eviction is CLOCK: a hit sets the referenced bit and the hand gives referenced
+    // entries a second chance, taking expired entries first. Non-IPv4 answers spill to a side map.
+    // Readers use StampedLock optimistic reads; writers take the write lock.
+    final class CompactTable {
+        // lookup() result: bits 0-31 the IPv4 address, plus these flags
+        static final long NEGATIVE = 1L << 32;
+        static final long TEXT_ADDRESS = 1L << 33;
+        static final long STALE = 1L << 34;
+        static final long MISSING = -1;
+        static final long EXPIRED = -2;
+
+        private static final byte NEGATIVE_FLAG = 1;
+        private static final byte TEXT_FLAG = 2;
+
+        private final String[] keys;
+        private final int[] addresses;
+        private final int[] expirySeconds;
+        private final byte[] flags;
+        // CLOCK bits live apart from flags: readers set them without the write lock, and a racy
+        // write must never touch the answer's NEGATIVE/TEXT bits. Readers only ever write 1,
+        // the hand clears them under the write lock.
+        private final byte[] referenced;
+        private final ConcurrentHashMap<String, String> textAddresses = new ConcurrentHashMap<>();
+        private final StampedLock lock = new StampedLock();
+        private final long baseMillis;
+        private final int mask;
+        private final int maxEntries;
+        private volatile int size;
+        private int hand;
+        private int sweepCursor;
+
+        CompactTable(int maxEntries, long baseMillis) {
+            int capacity = Integer.highestOneBit(Math.max(4, (int) Math.min(1 << 30, maxEntries * 4L / 3 + 1)) * 2 - 1);
+            this.keys = new String[capacity];
+            this.addresses = new int[capacity];
+            this.expirySeconds = new int[capacity];
+            this.flags = new byte[capacity];
+            this.referenced = new byte[capacity];
+            this.baseMillis = baseMillis;
+            this.mask = capacity - 1;
+            this.maxEntries = Math.min(maxEntries, capacity * 3 / 4);
+        }
+
+        private int home(String domain) {
+            int h = domain.hashCode();
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private int indexOf(String domain) {
+            for (int i = home(domain); ; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (key == null) return -1;
+                if (key.equals(domain)) return i;
+            }
+        }
+
+        private long expiryMillis(int slot) {
+            return baseMillis + expirySeconds[slot] * 1000L;
+        }
+
+        // Packed answer for the domain (see the result constants), MISSING, or EXPIRED once
+        // the entry is past its expiry and stale window. A hit marks the entry referenced.
+        long lookup(String domain, long now, boolean markReferenced) {
+            long stamp = lock.tryOptimisticRead();
+            int slot = indexOf(domain);
+            long record = read(slot, now);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    slot = indexOf(domain);
+                    record = read(slot, now);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            // Only a validated hit marks its slot; if a writer has since moved the entry the
+            // bit lands on another one, which just gives that entry a second chance
+            if (markReferenced && record >= 0 && referenced[slot] == 0) {
+                referenced[slot] = 1;
+            }
+            return record;
+        }
+
+        private long read(int slot, long now) {
+            if (slot < 0) return MISSING;
+            long expiry = expiryMillis(slot);
+            if (now > expiry + maxStaleMillis) return EXPIRED;
+            int f = flags[slot];
+            return (addresses[slot] & 0xFFFFFFFFL)
+                    | ((f & NEGATIVE_FLAG) != 0 ? NEGATIVE : 0)
+                    | ((f & TEXT_FLAG) != 0 ? TEXT_ADDRESS : 0)
+                    | (now > expiry ? STALE : 0);
+        }
+
+        // Cached answer for a lookup() record: an address, null for NXDOMAIN, or NOT_CACHED
+        String answer(String domain, long record) {
+            if ((record & NEGATIVE) != 0) return null;
+            if ((record & TEXT_ADDRESS) != 0) {
+                String text = textAddresses.get(domain);
+                return text != null ? text : NOT_CACHED;
+            }
+            return formatIPv4((int) record);
+        }
+
+        boolean contains(String domain) {
+            return lookup(domain, Long.MIN_VALUE / 2, false) != MISSING;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void put(String domain, String ipAddress, long expiryMillis, boolean referenced) {
+            long packed = ipAddress == null ? 0 : packIPv4(ipAddress);
+            // Rounded down: an answer may leave up to a second early, never late
+            long seconds = Math.floorDiv(expiryMillis - baseMillis, 1000);
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(domain);
+                if (slot < 0) {
+                    if (size >= maxEntries) {
+                        evictOne(System.currentTimeMillis());
+                    }
+                    slot = home(domain);
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = domain;
+                    flags[slot] = 0;
+                    this.referenced[slot] = 0;
+                    size++;
+                }
+                if (referenced) {
+                    this.referenced[slot] = 1;
+                }
+                int f = 0;
+                if (ipAddress == null) {
+                    f |= NEGATIVE_FLAG;
+                } else if (packed < 0) {
+                    f |= TEXT_FLAG;
+                    textAddresses.put(domain, ipAddress);
+                }
+                if ((f & TEXT_FLAG) == 0 && (flags[slot] & TEXT_FLAG) != 0) {
+                    textAddresses.remove(domain);
+                }
+                addresses[slot] = (int) Math.max(packed, 0);
+                expirySeconds[slot] = (int) Math.max(0, Math.min(Integer.MAX_VALUE, seconds));
+                flags[slot] = (byte) f;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Remove the domain if it is (still) past its expiry and stale window
+        boolean removeExpired(String domain, long now) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOf(domain);
+                if (slot < 0 || now <= expiryMillis(slot) + maxStaleMillis) return false;
+                removeAt(slot);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // CLOCK: expired entries go first, referenced entries get their bit cleared and are skipped
+        private void evictOne(long now) {
+            while (size > 0) {
+                int slot = hand;
+                hand = (hand + 1) & mask;
+                if (keys[slot] == null) continue;
+                if (now > expiryMillis(slot) + maxStaleMillis) {
+                    removeAt(slot);
+                    expirations.increment();
+                    return;
+                }
+                if (referenced[slot] != 0) {
+                    referenced[slot] = 0;
+                    continue;
+                }
+                removeAt(slot);
+                evictions.increment();
+                return;
+            }
+        }
+
+        // Incrementally remove entries past their expiry and stale window
+        void sweep(long now, int slots) {
+            long stamp = lock.writeLock();
+            try {
+                for (int n = 0; n < slots && size > 0; n++) {
+                    int slot = sweepCursor;
+                    if (keys[slot] != null && now > expiryMillis(slot) + maxStaleMillis) {
+                        removeAt(slot); // a shifted entry may now occupy this slot; look again
+                        expirations.increment();
+                    } else {
+                        sweepCursor = (sweepCursor + 1) & mask;
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Backward-shift deletion keeps probe chains intact without tombstones (caller holds the write lock)
+        private void removeAt(int slot) {
+            if ((flags[slot] & TEXT_FLAG) != 0) {
+                textAddresses.remove(keys[slot]);
+            }
+            int hole = slot;
+            for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+                int home = home(keys[i]);
+                // Move the entry back unless its home lies cyclically in (hole, i]
+                boolean stays = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+                if (!stays) {
+                    keys[hole] = keys[i];
+                    addresses[hole] = addresses[i];
+                    expirySeconds[hole] = expirySeconds[i];
+                    flags[hole] = flags[i];
+                    referenced[hole] = referenced[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = null;
+            flags[hole] = 0;
+            referenced[hole] = 0;
+            size--;
+        }
+
+        // Copy live entries out, referenced ones first; returns how many were referenced
+        int collect(List<DNSEntry> out) {
+            List<DNSEntry> cold = new ArrayList<>();
+            int hot = 0;
+            long stamp = lock.readLock();
+            try {
+                for (int slot = 0; slot <= mask; slot++) {
+                    if (keys[slot] == null) continue;
+                    String ipAddress = (flags[slot] & NEGATIVE_FLAG) != 0 ? null
+                            : (flags[slot] & TEXT_FLAG) != 0 ? textAddresses.get(keys[slot])
+                            : formatIPv4(addresses[slot]);
+                    DNSEntry entry = new DNSEntry(keys[slot], ipAddress, baseMillis, expiryMillis(slot));
+                    if (referenced[slot] != 0) {
+                        out.add(entry);
+                        hot++;
+                    } else {
+                        cold.add(entry);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            out.addAll(cold);
+            return hot;
+        }
+    }
+
+    // Bounded multi-producer ring of recent hits. Producers never wait: when a CAS
+    // races or the ring is full the access is simply dropped, which only costs a
+    // little LRU precision. Only the thread holding evictionLock consumes.
+    static class ReadBuffer {
+        private final AtomicReferenceArray<DNSEntry> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        // Returns true when the buffer has enough pending reads to be worth draining
+        boolean offer(DNSEntry entry) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            long pending = tail - head;
+            if (pending >= READ_BUFFER_SIZE) {
+                return true;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), entry);
+                pending++;
+            }
+            return pending >= READ_BUFFER_DRAIN_THRESHOLD;
+        }
+
+        void drainTo(DNSCache owner) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & (READ_BUFFER_SIZE - 1));
+                DNSEntry entry = slots.get(index);
+                if (entry == null) {
+                    break; // slot claimed but not yet published; pick it up next drain
+                }
+                slots.lazySet(index, null);
+                owner.onAccess(entry);
+            }
+            readCounter = head;
+        }
+    }
+
     public DNSCache(int maxCacheSize) {
+        this(maxCacheSize, new SimulatedResolver(DEFAULT_TTL_SECONDS));
+    }
+
+    public DNSCache(int maxCacheSize, UpstreamResolver resolver) {
+        this(maxCacheSize, resolver, RefreshMode.NONE, 1.0, 0);
+    }
+
+    // refreshAheadFraction applies to REFRESH_AHEAD (e.g. 0.8 = refresh after 80% of the TTL),
+    // maxStaleMillis to STALE_WHILE_REVALIDATE
+    public DNSCache(int maxCacheSize, UpstreamResolver resolver, RefreshMode refreshMode,
+                    double refreshAheadFraction, long maxStaleMillis) {
+        this(maxCacheSize, resolver, refreshMode, refreshAheadFraction, maxStaleMillis, false, true);
+    }
+
+    // Memory-compact cache for millions of domains (see CompactTable). Entries do not keep
+    // their insertion time, so REFRESH_AHEAD is not available in this mode.
+    public static DNSCache compact(int maxCacheSize, UpstreamResolver resolver,
+                                   RefreshMode refreshMode, long maxStaleMillis) {
+        if (refreshMode == RefreshMode.REFRESH_AHEAD) {
+            throw new IllegalArgumentException("REFRESH_AHEAD is not supported in compact mode");
+        }
+        return new DNSCache(maxCacheSize, resolver, refreshMode, 1.0, maxStaleMillis, true, false);
+    }
+
+    private DNSCache(int maxCacheSize, UpstreamResolver resolver, RefreshMode refreshMode,
+                     double refreshAheadFraction, long maxStaleMillis, boolean compact,
+                     boolean admissionEnabled) {
+        if (maxCacheSize < 1) {
+            throw new IllegalArgumentException("maxCacheSize must be positive");
+        }
+        if (refreshAheadFraction <= 0 || refreshAheadFraction > 1) {
+            throw new IllegalArgumentException("refreshAheadFraction must be in (0, 1]");
+        }
         this.cache = new ConcurrentHashMap<>();
         this.maxCacheSize = maxCacheSize;
-        this.accessOrder = new LinkedHashMap<>(16, 0.75f, true);
-        this.cacheHits = 0;
-        this.cacheMisses = 0;
+        this.windowCapacity = Math.max(1, (int) ((long) maxCacheSize * WINDOW_PERCENT / 100));
+        this.mainCapacity = Math.max(0, maxCacheSize - windowCapacity);
+        this.protectedCapacity = (int) ((long) mainCapacity * PROTECTED_PERCENT / 100);
+        this.window = new AccessDeque();
+        this.probation = new AccessDeque();
+        this.protectedSegment = new AccessDeque();
+        this.evictionLock = new ReentrantLock();
+        this.readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.drainScheduled = new AtomicBoolean();
+        this.maintenanceExecutor = ForkJoinPool.commonPool();
+        this.inFlightLookups = new ConcurrentHashMap<>();
+        this.cacheHits = new LongAdder();
+        this.staleHits = new LongAdder();
+        this.cacheMisses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.expirations = new LongAdder();
+        this.admissionRejections = new LongAdder();
+        this.upstreamQueries = new LongAdder();
+        this.upstreamInFlight = new AtomicInteger();
+        this.hitLatency = new LatencyHistogram();
+        this.missLatency = new LatencyHistogram();
+        this.upstreamExecutor = new ThreadPoolExecutor(UPSTREAM_THREADS, UPSTREAM_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "dns-upstream");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.upstreamExecutor.allowCoreThreadTimeOut(true);
+        this.resolver = resolver;
+        this.refreshMode = refreshMode;
+        this.refreshAheadFraction = refreshAheadFraction;
+        this.maxStaleMillis = refreshMode == RefreshMode.STALE_WHILE_REVALIDATE ? maxStaleMillis : 0;
+        this.timerWheel = new TimerWheel(System.currentTimeMillis());
+        this.sketch = compact ? null : new FrequencySketch(maxCacheSize);
+        this.admissionEnabled = admissionEnabled && !compact;
+        this.compactTable = compact ? new CompactTable(maxCacheSize, System.currentTimeMillis()) : null;
+        this.refreshBackoff = compact ? new ConcurrentHashMap<>() : null;
 
-        // Start background cleanup thread
-        startCleanupThread();
+        scheduleExpiry(this);
     }
 
-    // Resolve domain name
+    // Resolve domain name; null if it does not exist or upstream failed
     public String resolve(String domain) {
+        long start = System.nanoTime();
+        String ipAddress = lookupCached(domain);
+        if (ipAddress != NOT_CACHED) {
+            hitLatency.record(System.nanoTime() - start);
+            return ipAddress;
+        }
+        try {
+            return startLookup(domain, false).join();
+        } finally {
+            missLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    // Non-blocking resolve: hits complete immediately, misses complete when the shared
+    // upstream lookup for the domain does. No caller thread waits on the network.
+    public CompletableFuture<String> resolveAsync(String domain) {
+        long start = System.nanoTime();
+        String ipAddress = lookupCached(domain);
+        if (ipAddress != NOT_CACHED) {
+            hitLatency.record(System.nanoTime() - start);
+            return CompletableFuture.completedFuture(ipAddress);
+        }
+        // A fresh dependent per caller, so completing or cancelling it cannot affect other waiters
+        return startLookup(domain, false).whenComplete(
+                (answer, failure) -> missLatency.record(System.nanoTime() - start));
+    }
+
+    // Resolve many domains concurrently; the map follows the collection's iteration order
+    public CompletableFuture<Map<String, String>> resolveAll(Collection<String> domains) {
+        Map<String, CompletableFuture<String>> lookups = new LinkedHashMap<>();
+        for (String domain : domains) {
+            lookups.computeIfAbsent(domain, this::resolveAsync);
+        }
+        return CompletableFuture.allOf(lookups.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    Map<String, String> answers = new LinkedHashMap<>();
+                    lookups.forEach((domain, lookup) -> answers.put(domain, lookup.join()));
+                    return answers;
+                });
+    }
+
+    // Fresh (or servable stale) cached answer, null for a cached NXDOMAIN,
+    // or NOT_CACHED after recording a miss
+    private String lookupCached(String domain) {
+        if (compactTable != null) {
+            return lookupCompact(domain);
+        }
         DNSEntry entry = cache.get(domain);
+        long now = System.currentTimeMillis();
 
         // Check if cached and not expired
-        if (entry != null && !entry.isExpired()) {
-            cacheHits++;
-            updateAccessOrder(domain);
-            System.out.println("Cache HIT → " + entry.ipAddress);
+        if (entry != null && now <= entry.expiryTime) {
+            cacheHits.increment();
+            recordAccess(entry);
+            if (refreshMode == RefreshMode.REFRESH_AHEAD && now >= refreshTime(entry)
+                    && now >= entry.refreshNotBefore) {
+                startLookup(domain, true);
+            }
+            return entry.ipAddress;
+        }
+
+        // Expired but still inside the stale window: answer now, refresh behind the caller
+        if (entry != null && now <= entry.expiryTime + maxStaleMillis) {
+            cacheHits.increment();
+            staleHits.increment();
+            recordAccess(entry);
+            if (now >= entry.refreshNotBefore) {
+                startLookup(domain, true);
+            }
             return entry.ipAddress;
         }
 
         // Cache miss or expired
-        cacheMisses++;
-        if (entry != null && entry.isExpired()) {
-            System.out.println("Cache EXPIRED → Querying upstream");
-            cache.remove(domain);
-        } else {
-            System.out.println("Cache MISS → Querying upstream");
+        cacheMisses.increment();
+        if (entry != null && removeEntry(domain, entry)) {
+            expirations.increment();
         }
+        return NOT_CACHED;
+    }
 
-        // Query upstream DNS (simulated)
-        String ipAddress = queryUpstreamDNS(domain);
+    private String lookupCompact(String domain) {
+        long now = System.currentTimeMillis();
+        long record = compactTable.lookup(domain, now, true);
+        if (record >= 0) {
+            String ipAddress = compactTable.answer(domain, record);
+            if (ipAddress != NOT_CACHED) {
+                cacheHits.increment();
+                if ((record & CompactTable.STALE) != 0) {
+                    staleHits.increment();
+                    Long notBefore = refreshBackoff.get(domain);
+                    if (notBefore == null || now >= notBefore) {
+                        startLookup(domain, true);
+                    }
+                }
+                return ipAddress;
+            }
+        }
+        cacheMisses.increment();
+        if (record == CompactTable.EXPIRED && compactTable.removeExpired(domain, now)) {
+            expirations.increment();
+        }
+        return NOT_CACHED;
+    }
 
-        // Add to cache with TTL
-        addToCache(domain, ipAddress, 300); // 300s TTL
-        return ipAddress;
+    // Cached answer without touching statistics or recency: fresh only, or also stale
+    private String peekCached(String domain, boolean allowStale) {
+        long now = System.currentTimeMillis();
+        if (compactTable != null) {
+            long record = compactTable.lookup(domain, now, false);
+            if (record < 0 || (!allowStale && (record & CompactTable.STALE) != 0)) {
+                return NOT_CACHED;
+            }
+            return compactTable.answer(domain, record);
+        }
+        DNSEntry entry = cache.get(domain);
+        if (entry == null || now > entry.expiryTime + (allowStale ? maxStaleMillis : 0)) {
+            return NOT_CACHED;
+        }
+        return entry.ipAddress;
     }
 
-    // Simulate upstream DNS query
-    private String queryUpstreamDNS(String domain) {
-        // Simulate network delay
+    // Single-flight: start an asynchronous upstream lookup, or join the one already in flight
+    // for the domain. A refresh always queries upstream; a miss first re-checks the cache,
+    // since a previous lookup may have filled it between our miss and putIfAbsent.
+    private CompletableFuture<String> startLookup(String domain, boolean refresh) {
+        CompletableFuture<String> lookup = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = inFlightLookups.putIfAbsent(domain, lookup);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        String cached = peekCached(domain, refresh);
+        if (!refresh && cached != NOT_CACHED) {
+            inFlightLookups.remove(domain, lookup);
+            lookup.complete(cached);
+            return lookup;
+        }
+
+        upstreamQueries.increment();
+        upstreamInFlight.incrementAndGet();
+        CompletableFuture<Answer> query;
         try {
-            Thread.sleep(100); // 100ms delay
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            query = resolver.query(domain);
+        } catch (RuntimeException e) {
+            query = CompletableFuture.failedFuture(e);
+        }
+        query.whenCompleteAsync((answer, failure) -> {
+            String ipAddress = null;
+            try {
+                if (failure == null && answer != null) {
+                    ipAddress = answer.ipAddress;
+                    int ttl = answer.isNxdomain()
+                            ? Math.min(answer.ttlSeconds, MAX_NEGATIVE_TTL_SECONDS) : answer.ttlSeconds;
+                    addToCache(domain, ipAddress, ttl);
+                } else if (refresh && cached != NOT_CACHED && cached != null) {
+                    // A failed refresh keeps the last good answer until it runs out, and holds
+                    // off the next refresh so every hit does not become another upstream query
+                    ipAddress = cached;
+                    backOffRefresh(domain);
+                } else {
+                    addToCache(domain, null, FAILURE_TTL_SECONDS);
+                }
+            } finally {
+                // Cache first, then leave the in-flight map, so later callers never miss both
+                inFlightLookups.remove(domain, lookup);
+                upstreamInFlight.decrementAndGet();
+                lookup.complete(ipAddress);
+            }
+        }, upstreamExecutor);
+        return lookup;
+    }
+
+    private void backOffRefresh(String domain) {
+        long notBefore = System.currentTimeMillis() + FAILURE_TTL_SECONDS * 1000L;
+        if (compactTable != null) {
+            refreshBackoff.put(domain, notBefore);
+            return;
+        }
+        DNSEntry entry = cache.get(domain);
+        if (entry != null) {
+            entry.refreshNotBefore = notBefore;
         }
+    }
 
-        // Generate mock IP
-        Random rand = new Random();
-        return String.format("172.%d.%d.%d",
-                rand.nextInt(256), rand.nextInt(256), rand.nextInt(256));
+    private long refreshTime(DNSEntry entry) {
+        return entry.timestamp + (long) ((entry.expiryTime - entry.timestamp) * refreshAheadFraction);
     }
 
-    // Add entry to cache with LRU eviction
+    // Add entry to cache: new entries go to the window, refreshed ones keep their queue
     private void addToCache(String domain, String ipAddress, int ttlSeconds) {
-        // Evict LRU if cache is full
-        if (cache.size() >= maxCacheSize) {
-            evictLRU();
+        if (compactTable != null) {
+            compactTable.put(domain, ipAddress, System.currentTimeMillis() + ttlSeconds * 1000L, false);
+            return;
         }
-
         DNSEntry entry = new DNSEntry(domain, ipAddress, ttlSeconds);
-        cache.put(domain, entry);
-        updateAccessOrder(domain);
+
+        // Writes only happen on the (already slow) miss path, so they take the lock
+        // directly; the map never grows past maxCacheSize
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            sketch.increment(FrequencySketch.spread(domain));
+            DNSEntry previous = cache.remove(domain);
+            // A refreshed entry keeps the queue its predecessor had earned
+            int queue = DNSEntry.WINDOW;
+            if (previous != null) {
+                if (previous.queue != DNSEntry.UNLINKED) {
+                    queue = previous.queue;
+                }
+                unlink(previous);
+            }
+            cache.put(domain, entry);
+            entry.queue = queue;
+            queueFor(queue).addLast(entry);
+            timerWheel.schedule(entry, entry.expiryTime + maxStaleMillis);
+            evictFromWindow();
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
-    // Update access order for LRU
-    private synchronized void updateAccessOrder(String domain) {
-        accessOrder.put(domain, System.currentTimeMillis());
+    // Entries overflowing the window compete with the main victim for a place (caller holds
+    // evictionLock). The loser is evicted; the answer was already returned to its callers.
+    private void evictFromWindow() {
+        while (window.size() > windowCapacity) {
+            DNSEntry candidate = window.peekFirst();
+            if (probation.size() + protectedSegment.size() < mainCapacity) {
+                admitToProbation(candidate);
+                continue;
+            }
+            DNSEntry victim = probation.size() > 0 ? probation.peekFirst() : protectedSegment.peekFirst();
+            if (victim == null || (admissionEnabled && sketch.frequency(FrequencySketch.spread(candidate.domain))
+                    <= sketch.frequency(FrequencySketch.spread(victim.domain)))) {
+                if (victim != null) {
+                    admissionRejections.increment();
+                }
+                evict(candidate);
+            } else {
+                evict(victim);
+                admitToProbation(candidate);
+            }
+        }
     }
 
-    // Evict least recently used entry
-    private synchronized void evictLRU() {
-        if (accessOrder.isEmpty()) return;
+    private void admitToProbation(DNSEntry entry) {
+        window.remove(entry);
+        entry.queue = DNSEntry.PROBATION;
+        probation.addLast(entry);
+    }
 
-        String lruDomain = accessOrder.keySet().iterator().next();
-        cache.remove(lruDomain);
-        accessOrder.remove(lruDomain);
-        System.out.println("Evicted LRU entry: " + lruDomain);
+    private AccessDeque queueFor(int queue) {
+        if (queue == DNSEntry.PROTECTED) return protectedSegment;
+        return queue == DNSEntry.PROBATION ? probation : window;
     }
 
-    // Get cache statistics
-    public String getCacheStats() {
-        long total = cacheHits + cacheMisses;
-        double hitRate = total > 0 ? (cacheHits * 100.0 / total) : 0;
-        return String.format("Hit Rate: %.1f%%, Total Lookups: %d", hitRate, total);
+    // Record a hit without blocking; the policy is updated when the buffers drain
+    private void recordAccess(DNSEntry entry) {
+        int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B9L) & (readBuffers.length - 1);
+        if (readBuffers[stripe].offer(entry) && drainScheduled.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(this::drainTask);
+        }
     }
 
-    // Background thread to clean expired entries
-    private void startCleanupThread() {
-        Thread cleanupThread = new Thread(() -> {
-            while (true) {
+    private void drainTask() {
+        try {
+            if (evictionLock.tryLock()) {
                 try {
-                    Thread.sleep(30000); // Clean every 30 seconds
-                    cleanExpiredEntries();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+                    drainReadBuffers();
+                } finally {
+                    evictionLock.unlock();
                 }
             }
-        });
-        cleanupThread.setDaemon(true);
-        cleanupThread.start();
+        } finally {
+            drainScheduled.set(false);
+        }
+    }
+
+    // Caller holds evictionLock
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    // Replay one buffered hit (caller holds evictionLock)
+    private void onAccess(DNSEntry entry) {
+        sketch.increment(FrequencySketch.spread(entry.domain));
+        if (entry.queue == DNSEntry.PROBATION) {
+            probation.remove(entry);
+            entry.queue = DNSEntry.PROTECTED;
+            protectedSegment.addLast(entry);
+            // Overflow from protected goes back to probation for a second chance
+            while (protectedSegment.size() > protectedCapacity) {
+                DNSEntry demoted = protectedSegment.peekFirst();
+                protectedSegment.remove(demoted);
+                demoted.queue = DNSEntry.PROBATION;
+                probation.addLast(demoted);
+            }
+        } else if (entry.queue == DNSEntry.PROTECTED) {
+            protectedSegment.moveToBack(entry);
+        } else if (entry.queue == DNSEntry.WINDOW) {
+            window.moveToBack(entry);
+        }
+        // UNLINKED: evicted or expired after the hit was buffered
+    }
+
+    // Caller holds evictionLock
+    private void unlink(DNSEntry entry) {
+        if (entry.queue != DNSEntry.UNLINKED) {
+            queueFor(entry.queue).remove(entry);
+        }
+        entry.queue = DNSEntry.UNLINKED;
+        timerWheel.deschedule(entry);
     }
 
-    // Remove expired entries
-    private void cleanExpiredEntries() {
-        int removed = 0;
-        for (Map.Entry<String, DNSEntry> entry : cache.entrySet()) {
-            if (entry.getValue().isExpired()) {
-                cache.remove(entry.getKey());
-                synchronized (this) {
-                    accessOrder.remove(entry.getKey());
+    // Remove a specific entry if it is still the mapped one
+    private boolean removeEntry(String domain, DNSEntry entry) {
+        evictionLock.lock();
+        try {
+            if (cache.remove(domain, entry)) {
+                unlink(entry);
+                return true;
+            }
+            return false;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Caller holds evictionLock
+    private void evict(DNSEntry victim) {
+        unlink(victim);
+        cache.remove(victim.domain, victim);
+        evictions.increment();
+    }
+
+    // Apply all buffered hits now instead of waiting for the next drain
+    public void cleanUp() {
+        if (compactTable != null) {
+            return; // hits set the CLOCK bit directly; nothing is buffered
+        }
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return compactTable != null ? compactTable.size() : cache.size();
+    }
+
+    // Number of queries sent upstream so far
+    public int getUpstreamQueryCount() {
+        return upstreamQueries.intValue();
+    }
+
+    public boolean isCached(String domain) {
+        return compactTable != null ? compactTable.contains(domain) : cache.containsKey(domain);
+    }
+
+    // Point-in-time copy of the cache statistics
+    public CacheStats getCacheStats() {
+        return new CacheStats(this);
+    }
+
+    // Live latency distributions (nanoseconds) for resolves answered from cache and from upstream
+    public LatencyHistogram getHitLatency() {
+        return hitLatency;
+    }
+
+    public LatencyHistogram getMissLatency() {
+        return missLatency;
+    }
+
+    // Write live positive entries, hottest first (protected, window, then probation, each MRU
+    // to LRU), to a compact binary file. Each save writes its own temp file next to the target
+    // and moves it into place, so a reader never sees a partial snapshot and concurrent saves
+    // never share a staging file.
+    public void saveSnapshot(Path file) throws IOException {
+        List<DNSEntry> entries = new ArrayList<>(size());
+        int hotCount;
+        if (compactTable != null) {
+            hotCount = compactTable.collect(entries);
+        } else {
+            evictionLock.lock();
+            try {
+                drainReadBuffers();
+                entries.addAll(protectedSegment.newestFirst());
+                hotCount = entries.size();
+                entries.addAll(window.newestFirst());
+                entries.addAll(probation.newestFirst());
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        try {
+            writeSnapshot(temp, entries, hotCount, now);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void writeSnapshot(Path temp, List<DNSEntry> entries, int hotCount, long now)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            int count = 0;
+            for (DNSEntry entry : entries) {
+                if (entry.ipAddress != null && entry.expiryTime > now) count++;
+            }
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < entries.size(); i++) {
+                DNSEntry entry = entries.get(i);
+                if (entry.ipAddress == null || entry.expiryTime <= now) {
+                    continue; // negative answers are short-lived and not worth persisting
+                }
+                long packed = packIPv4(entry.ipAddress);
+                int flags = (i < hotCount ? FLAG_HOT : 0) | (packed < 0 ? FLAG_TEXT_ADDRESS : 0);
+                out.writeUTF(entry.domain);
+                out.writeByte(flags);
+                if (packed < 0) {
+                    out.writeUTF(entry.ipAddress);
+                } else {
+                    out.writeInt((int) packed);
                 }
-                removed++;
+                out.writeLong(entry.expiryTime);
+            }
+        }
+    }
+
+    // Save a snapshot every periodMillis; the write runs on the upstream pool so the shared
+    // timer thread is never blocked on disk. Failures are reported and retried next period.
+    public ScheduledFuture<?> scheduleSnapshots(Path file, long periodMillis) {
+        return EXPIRY_SCHEDULER.scheduleAtFixedRate(() -> upstreamExecutor.execute(() -> {
+            try {
+                saveSnapshot(file);
+            } catch (IOException e) {
+                System.err.println("DNS cache snapshot to " + file + " failed: " + e.getMessage());
+            }
+        }), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Warm start: bulk-load the unexpired entries of a snapshot under one lock acquisition,
+    // keeping their hot/cold segment and recency order, then re-resolve (asynchronously) up to
+    // preResolveCount of the hottest entries that expired while the process was down.
+    // Entries already in the cache are left alone. Returns the number of entries restored.
+    public int loadSnapshot(Path file, int preResolveCount) throws IOException {
+        List<DNSEntry> restored = new ArrayList<>();
+        List<Boolean> restoredHot = new ArrayList<>();
+        List<String> preResolve = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a DNS cache snapshot (version " + SNAPSHOT_VERSION + ")");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String domain = in.readUTF();
+                int flags = in.readByte();
+                String ipAddress = (flags & FLAG_TEXT_ADDRESS) != 0 ? in.readUTF() : formatIPv4(in.readInt());
+                long expiryTime = in.readLong();
+                boolean hot = (flags & FLAG_HOT) != 0;
+                if (now <= expiryTime + maxStaleMillis) {
+                    if (restored.size() < maxCacheSize) {
+                        restored.add(new DNSEntry(domain, ipAddress, now, expiryTime));
+                        restoredHot.add(hot);
+                    }
+                } else if (hot && preResolve.size() < preResolveCount) {
+                    preResolve.add(domain);
+                }
+            }
+        }
+
+        int loaded = 0;
+        if (compactTable != null) {
+            for (int i = 0; i < restored.size() && compactTable.size() < maxCacheSize; i++) {
+                DNSEntry entry = restored.get(i);
+                if (!compactTable.contains(entry.domain)) {
+                    compactTable.put(entry.domain, entry.ipAddress, entry.expiryTime, restoredHot.get(i));
+                    loaded++;
+                }
+            }
+            restored.clear();
+        }
+        evictionLock.lock();
+        try {
+            int protectedRoom = protectedCapacity - protectedSegment.size();
+            // Coldest first, so the hottest entries end up at the MRU end of their segment
+            for (int i = restored.size() - 1; i >= 0; i--) {
+                DNSEntry entry = restored.get(i);
+                if (probation.size() + protectedSegment.size() >= mainCapacity) {
+                    break; // main space is already full of live entries
+                }
+                if (cache.putIfAbsent(entry.domain, entry) != null) {
+                    continue;
+                }
+                boolean hot = restoredHot.get(i) && protectedRoom-- > 0;
+                entry.queue = hot ? DNSEntry.PROTECTED : DNSEntry.PROBATION;
+                (hot ? protectedSegment : probation).addLast(entry);
+                timerWheel.schedule(entry, entry.expiryTime + maxStaleMillis);
+                loaded++;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        for (String domain : preResolve) {
+            startLookup(domain, false);
+        }
+        return loaded;
+    }
+
+    // Dotted-quad IPv4 as an unsigned 32-bit value, or -1 if the text is not IPv4
+    static long packIPv4(String ipAddress) {
+        long packed = 0;
+        int octets = 0;
+        int value = -1;
+        for (int i = 0; i <= ipAddress.length(); i++) {
+            char c = i < ipAddress.length() ? ipAddress.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || ++octets > 4) return -1;
+                packed = (packed << 8) | value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) return -1;
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? packed : -1;
+    }
+
+    static String formatIPv4(int packed) {
+        return (packed >>> 24) + "." + ((packed >>> 16) & 0xFF) + "." + ((packed >>> 8) & 0xFF) + "." + (packed & 0xFF);
+    }
+
+    // Advance this cache's timer wheel from the shared scheduler. The task only holds the
+    // cache weakly, so an unreferenced cache is collected and its task cancels itself.
+    private static void scheduleExpiry(DNSCache dnsCache) {
+        WeakReference<DNSCache> ref = new WeakReference<>(dnsCache);
+        CompletableFuture<ScheduledFuture<?>> task = new CompletableFuture<>();
+        task.complete(EXPIRY_SCHEDULER.scheduleWithFixedDelay(() -> {
+            DNSCache target = ref.get();
+            if (target != null) {
+                target.expireEntries();
+            } else {
+                task.join().cancel(false);
+            }
+        }, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    // Remove entries whose expiry (plus stale window, if any) has passed
+    private void expireEntries() {
+        if (compactTable != null) {
+            long now = System.currentTimeMillis();
+            compactTable.sweep(now, COMPACT_SWEEP_SLOTS);
+            if (!refreshBackoff.isEmpty()) {
+                refreshBackoff.values().removeIf(notBefore -> notBefore <= now);
             }
+            return;
         }
-        if (removed > 0) {
-            System.out.println("Cleaned " + removed + " expired entries");
+        evictionLock.lock();
+        try {
+            timerWheel.advance(System.currentTimeMillis(), entry -> {
+                if (cache.remove(entry.domain, entry)) {
+                    unlink(entry);
+                    expirations.increment();
+                }
+            });
+        } finally {
+            evictionLock.unlock();
         }
     }
 
@@ -166,6 +1488,423 @@ public class DNSCache {
         dnsCache.resolve("google.com");
         dnsCache.resolve("amazon.com");
 
-        System.out.println(dnsCache.getCacheStats());
+        CacheStats stats = dnsCache.getCacheStats();
+        System.out.println(stats);
+        System.out.println("Hits: " + stats.getHits() + ", misses: " + stats.getMisses()
+                + ", evictions: " + stats.getEvictions() + ", expirations: " + stats.getExpirations()
+                + ", upstream queries: " + stats.getUpstreamQueries()
+                + ", in flight: " + stats.getUpstreamInFlight());
+        System.out.println("Miss latency: " + dnsCache.getMissLatency());
+
+        scanResistanceCheck();
+        singleFlightCheck();
+        refreshModeComparison();
+        timerWheelExpiryCheck();
+        asyncBatchResolve();
+        negativeCachingCheck();
+        failedRefreshCheck();
+        warmStartCheck();
+        compactModeCheck();
+        admissionTraceBenchmark();
+        concurrentHitScaling();
+    }
+
+    // Hot domains promoted to the protected segment survive a scan of one-off lookups
+    private static void scanResistanceCheck() throws InterruptedException {
+        System.out.println("\n=== Segmented LRU scan resistance ===");
+        DNSCache dnsCache = new DNSCache(20);
+        String[] hot = {"mail.example.com", "api.example.com", "cdn.example.com", "www.example.com"};
+        resolveInParallel(dnsCache, hot);
+        resolveInParallel(dnsCache, hot); // second lookup promotes them
+        dnsCache.cleanUp();
+
+        String[] scan = new String[60];
+        for (int i = 0; i < scan.length; i++) {
+            scan[i] = "crawler-" + i + ".example.net";
+        }
+        resolveInParallel(dnsCache, scan);
+
+        int survivors = 0;
+        for (String domain : hot) {
+            if (dnsCache.isCached(domain)) survivors++;
+        }
+        System.out.println("Size: " + dnsCache.size() + " (max 20), hot survivors: "
+                + survivors + "/" + hot.length);
+    }
+
+    // 1000 simultaneous misses for one domain must cost exactly one upstream query
+    private static void singleFlightCheck() throws InterruptedException {
+        System.out.println("\n=== Single-flight upstream misses ===");
+        DNSCache dnsCache = new DNSCache(1000);
+        int callers = 1000;
+        Set<String> answers = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(callers);
+
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    answers.add(dnsCache.resolve("popular.example.com"));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        int queries = dnsCache.getUpstreamQueryCount();
+        System.out.println(callers + " concurrent misses -> upstream queries: " + queries
+                + ", distinct answers: " + answers.size()
+                + (queries == 1 && answers.size() == 1 ? " (OK)" : " (FAILED)"));
+    }
+
+    // Worst-case resolve latency across TTL boundaries for each refresh mode
+    private static void refreshModeComparison() throws InterruptedException {
+        System.out.println("\n=== Refresh modes (1s TTL, 3.5s of traffic) ===");
+        for (RefreshMode mode : RefreshMode.values()) {
+            DNSCache dnsCache = new DNSCache(100, new SimulatedResolver(1), mode, 0.75, 5000);
+            String[] domains = {"a.example.com", "b.example.com", "c.example.com"};
+            resolveInParallel(dnsCache, domains);
+
+            LatencyHistogram latency = new LatencyHistogram();
+            int blocked = 0;
+            long end = System.currentTimeMillis() + 3500;
+            for (int i = 0; System.currentTimeMillis() < end; i++) {
+                long start = System.nanoTime();
+                dnsCache.resolve(domains[i % domains.length]);
+                long elapsed = System.nanoTime() - start;
+                latency.record(elapsed);
+                if (elapsed > 50_000_000) blocked++;
+                Thread.sleep(1);
+            }
+            System.out.printf("%-22s lookups=%d, blocked on upstream=%d, p99=%.1fus, max=%.1fms%n",
+                    mode, latency.count(), blocked, latency.percentileNanos(99) / 1e3,
+                    latency.maxNanos() / 1e6);
+        }
+    }
+
+    // Entries leave within about one wheel tick of their TTL, and caches start no threads of their own
+    private static void timerWheelExpiryCheck() throws InterruptedException {
+        System.out.println("\n=== Timer wheel expiry (1s TTL) ===");
+        int threadsBefore = Thread.activeCount();
+        List<DNSCache> idle = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            idle.add(new DNSCache(10));
+        }
+        System.out.println("Threads started by " + idle.size() + " new caches: "
+                + (Thread.activeCount() - threadsBefore));
+
+        DNSCache dnsCache = new DNSCache(1000, new SimulatedResolver(1));
+        String[] domains = new String[200];
+        for (int i = 0; i < domains.length; i++) {
+            domains[i] = "short-ttl-" + i + ".example.com";
+        }
+        resolveInParallel(dnsCache, domains);
+        long inserted = System.currentTimeMillis();
+
+        while (dnsCache.size() > 0 && System.currentTimeMillis() - inserted < 5000) {
+            Thread.sleep(10);
+        }
+        System.out.println("All " + domains.length + " entries removed "
+                + (System.currentTimeMillis() - inserted) + "ms after insertion (TTL 1000ms)");
+    }
+
+    // Thousands of concurrent misses complete in about one upstream round-trip on a bounded pool
+    private static void asyncBatchResolve() {
+        System.out.println("\n=== Async batch resolve ===");
+        DNSCache dnsCache = new DNSCache(10_000);
+        List<String> domains = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            domains.add("batch-" + i + ".example.com");
+        }
+
+        int threadsBefore = Thread.activeCount();
+        long start = System.nanoTime();
+        Map<String, String> answers = dnsCache.resolveAll(domains).join();
+        long elapsed = System.nanoTime() - start;
+        int threadsAfter = Thread.activeCount(); // pool threads linger idle for 30s
+
+        System.out.printf("Resolved %d domains in %.0fms using %d extra threads (%d upstream queries)%n",
+                answers.size(), elapsed / 1e6, threadsAfter - threadsBefore,
+                dnsCache.getUpstreamQueryCount());
+
+        int queriesBefore = dnsCache.getUpstreamQueryCount();
+        boolean sameAnswers = dnsCache.resolveAll(domains).join().equals(answers);
+        System.out.println("Second pass: same answers=" + sameAnswers + ", new upstream queries="
+                + (dnsCache.getUpstreamQueryCount() - queriesBefore));
+    }
+
+    // Bad names and a failing upstream are queried once, then answered from the negative cache
+    private static void negativeCachingCheck() {
+        System.out.println("\n=== Negative caching ===");
+        DNSCache dnsCache = new DNSCache(1000);
+        String nxAnswer = null;
+        for (int i = 0; i < 100; i++) {
+            nxAnswer = dnsCache.resolve("no-such-host.invalid");
+        }
+        int nxQueries = dnsCache.getUpstreamQueryCount();
+
+        DNSCache failingCache = new DNSCache(1000,
+                domain -> CompletableFuture.failedFuture(new java.io.IOException("upstream timed out")));
+        String failedAnswer = null;
+        for (int i = 0; i < 100; i++) {
+            failedAnswer = failingCache.resolve("example.com");
+        }
+
+        System.out.println("100 lookups of an NXDOMAIN name -> answer=" + nxAnswer
+                + ", upstream queries=" + nxQueries);
+        System.out.println("100 lookups with upstream failing -> answer=" + failedAnswer
+                + ", upstream queries=" + failingCache.getUpstreamQueryCount());
+    }
+
+    // One hot domain whose upstream starts failing: refreshes back off for FAILURE_TTL_SECONDS
+    // instead of turning every hit into another upstream query
+    private static void failedRefreshCheck() throws InterruptedException {
+        System.out.println("\n=== Failed refreshes (1s TTL, upstream fails after the first answer) ===");
+        for (int variant = 0; variant < 3; variant++) {
+            AtomicBoolean failing = new AtomicBoolean();
+            UpstreamResolver resolver = domain -> failing.get()
+                    ? CompletableFuture.failedFuture(new IOException("upstream timed out"))
+                    : CompletableFuture.completedFuture(Answer.address("10.0.0.1", 1));
+            DNSCache dnsCache = variant == 0
+                    ? new DNSCache(100, resolver, RefreshMode.REFRESH_AHEAD, 0.75, 0)
+                    : variant == 1
+                    ? new DNSCache(100, resolver, RefreshMode.STALE_WHILE_REVALIDATE, 1.0, 5000)
+                    : DNSCache.compact(100, resolver, RefreshMode.STALE_WHILE_REVALIDATE, 5000);
+            String label = variant == 0 ? "REFRESH_AHEAD" : variant == 1 ? "STALE_WHILE_REVALIDATE"
+                    : "compact STALE_WHILE_REVALIDATE";
+
+            dnsCache.resolve("hot.example.com");
+            failing.set(true);
+            long end = System.currentTimeMillis() + 2000;
+            while (System.currentTimeMillis() < end) {
+                dnsCache.resolve("hot.example.com");
+            }
+            // First answer, then one failed refresh (plus, for refresh-ahead, the miss once the
+            // entry has expired) within the 2s
+            int queries = dnsCache.getUpstreamQueryCount();
+            System.out.printf("%-30s upstream queries in 2s: %d%s%n", label, queries,
+                    queries <= 3 ? " (OK)" : " (FAILED)");
+        }
+    }
+
+    // A restarted cache answers its old working set without going upstream, and hot entries
+    // that expired while it was down are re-resolved straight away
+    private static void warmStartCheck() throws InterruptedException {
+        System.out.println("\n=== Warm-start snapshot ===");
+        Path file;
+        try {
+            file = Files.createTempFile("dns-cache", ".snapshot");
+        } catch (IOException e) {
+            System.out.println("Cannot create snapshot file: " + e.getMessage());
+            return;
+        }
+        try {
+            DNSCache before = new DNSCache(1000);
+            String[] domains = new String[500];
+            for (int i = 0; i < domains.length; i++) {
+                domains[i] = "site" + i + ".example.com";
+            }
+            resolveInParallel(before, domains);
+            touch(before, domains, 50); // the hot set
+            before.saveSnapshot(file);
+            System.out.println("Snapshot: " + Files.size(file) + " bytes for " + before.size() + " entries");
+
+            DNSCache restarted = new DNSCache(1000);
+            int loaded = restarted.loadSnapshot(file, 100);
+            resolveInParallel(restarted, domains);
+            System.out.println("Restored " + loaded + " entries; first wave hit rate "
+                    + restarted.getCacheStats() + ", upstream queries: " + restarted.getUpstreamQueryCount());
+
+            // Short TTL: everything expires before the restart, only the hot set is pre-resolved
+            DNSCache shortLived = new DNSCache(1000, new SimulatedResolver(1));
+            resolveInParallel(shortLived, domains);
+            touch(shortLived, domains, 50);
+            shortLived.saveSnapshot(file);
+            Thread.sleep(1100);
+            DNSCache afterOutage = new DNSCache(1000, new SimulatedResolver(1));
+            int fresh = afterOutage.loadSnapshot(file, 100);
+            Thread.sleep(300);
+            int hotCached = 0;
+            for (int i = 0; i < 50; i++) {
+                if (afterOutage.isCached(domains[i])) hotCached++;
+            }
+            System.out.println("After TTL lapse: restored " + fresh + ", pre-resolved "
+                    + afterOutage.getUpstreamQueryCount() + ", hot set cached " + hotCached + "/50");
+        } catch (IOException e) {
+            System.out.println("Snapshot failed: " + e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Same behaviour in compact mode, at a fraction of the heap per entry
+    private static void compactModeCheck() throws InterruptedException {
+        System.out.println("\n=== Compact mode ===");
+        DNSCache compact = DNSCache.compact(100, new SimulatedResolver(1), RefreshMode.NONE, 0);
+        String first = compact.resolve("example.com");
+        boolean hit = first.equals(compact.resolve("example.com"));
+        compact.resolve("gone.invalid");
+        boolean negativeCached = compact.isCached("gone.invalid");
+        String[] scan = new String[300];
+        for (int i = 0; i < scan.length; i++) {
+            scan[i] = "scan-" + i + ".example.net";
+        }
+        resolveInParallel(compact, scan);
+        System.out.println("Repeat lookup hit: " + hit + ", NXDOMAIN cached: " + negativeCached
+                + ", size after scan: " + compact.size() + " (max 100), evictions: "
+                + compact.getCacheStats().getEvictions());
+        Thread.sleep(1500);
+        System.out.println("After 1s TTL: size " + compact.size() + ", expirations: "
+                + compact.getCacheStats().getExpirations());
+
+        // Heap per entry, instant resolver so only the cache itself is measured
+        int entries = 300_000;
+        String[] domains = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            domains[i] = "d" + i + ".example.com";
+        }
+        UpstreamResolver instant = domain -> CompletableFuture.completedFuture(
+                Answer.address("10." + (domain.hashCode() >>> 16 & 0xFF) + ".0." + (domain.length() & 0xFF), 3600));
+        for (boolean compactMode : new boolean[]{false, true}) {
+            long baseline = usedHeap();
+            DNSCache dnsCache = compactMode
+                    ? DNSCache.compact(entries, instant, RefreshMode.NONE, 0)
+                    : new DNSCache(entries, instant);
+            dnsCache.resolveAll(Arrays.asList(domains)).join();
+            long used = usedHeap() - baseline;
+            System.out.printf("%-8s %d entries: %.1f bytes/entry (excluding domain strings)%n",
+                    compactMode ? "compact" : "default", dnsCache.size(), (double) used / dnsCache.size());
+            dnsCache.resolve(domains[0]); // keep the cache reachable until measured
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Trace-driven hit rate: Zipf-distributed traffic over 20k domains, interrupted by crawler
+    // bursts, replayed against plain LRU, window + SLRU without admission, and W-TinyLFU
+    private static void admissionTraceBenchmark() {
+        System.out.println("\n=== Admission policy hit rate (trace replay, cache of 1000) ===");
+        int cacheSize = 1000;
+        String[] trace = buildScanPollutedTrace(20_000, 0.9, 150_000, 10_000, 2_500, 42);
+        UpstreamResolver instant = domain -> CompletableFuture.completedFuture(Answer.address("10.0.0.1", 3600));
+
+        // Plain LRU, as DNSCache used to be: access-ordered LinkedHashMap, always admit
+        LinkedHashMap<String, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        long lruHits = 0;
+        for (String domain : trace) {
+            if (lru.get(domain) != null) {
+                lruHits++;
+            } else {
+                lru.put(domain, Boolean.TRUE);
+            }
+        }
+        System.out.printf("%-18s hit rate %.1f%%%n", "LRU", lruHits * 100.0 / trace.length);
+
+        for (boolean admission : new boolean[]{false, true}) {
+            DNSCache dnsCache = new DNSCache(cacheSize, instant, RefreshMode.NONE, 1.0, 0, false, admission);
+            for (String domain : trace) {
+                dnsCache.resolve(domain);
+                dnsCache.cleanUp(); // replay every hit so the run is deterministic
+            }
+            CacheStats stats = dnsCache.getCacheStats();
+            System.out.printf("%-18s hit rate %.1f%% (rejected %d newcomers)%n",
+                    admission ? "W-TinyLFU" : "Window + SLRU", stats.getHitRate(), stats.getAdmissionRejections());
+        }
+    }
+
+    // Zipf(skew) requests over `domains` names; after every `burstEvery` requests a crawler
+    // looks up `burstSize` names, each twice in a row and never again
+    private static String[] buildScanPollutedTrace(int domains, double skew, int requests,
+                                                   int burstEvery, int burstSize, long seed) {
+        double[] cdf = new double[domains];
+        double total = 0;
+        for (int rank = 0; rank < domains; rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            cdf[rank] = total;
+        }
+        Random random = new Random(seed);
+        List<String> trace = new ArrayList<>();
+        int crawledCount = 0;
+        for (int i = 1; i <= requests; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            trace.add("popular" + (rank < 0 ? -rank - 1 : rank) + ".example.com");
+            if (i % burstEvery == 0) {
+                for (int j = 0; j < burstSize; j++) {
+                    String crawled = "crawl" + (crawledCount++) + ".example.org";
+                    trace.add(crawled); // A query
+                    trace.add(crawled); // AAAA query right behind it
+                }
+            }
+        }
+        return trace.toArray(new String[0]);
+    }
+
+    // Hit the first count domains, applying each hit immediately (the read buffers are lossy,
+    // so a single-threaded burst would otherwise promote only part of the set)
+    private static void touch(DNSCache dnsCache, String[] domains, int count) {
+        for (int i = 0; i < count; i++) {
+            dnsCache.resolve(domains[i]);
+            dnsCache.cleanUp();
+        }
+    }
+
+    // Hit throughput with 1 vs N threads; the read path takes no lock
+    private static void concurrentHitScaling() throws InterruptedException {
+        System.out.println("\n=== Concurrent hit throughput ===");
+        DNSCache dnsCache = new DNSCache(1000);
+        String[] domains = new String[256];
+        for (int i = 0; i < domains.length; i++) {
+            domains[i] = "host" + i + ".example.org";
+        }
+        resolveInParallel(dnsCache, domains);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        long expectedHits = 0;
+        for (int threads : new int[]{1, Math.max(4, cores)}) {
+            int lookupsPerThread = 200_000;
+            CountDownLatch done = new CountDownLatch(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                new Thread(() -> {
+                    for (int i = 0; i < lookupsPerThread; i++) {
+                        dnsCache.resolve(domains[(i + offset) & (domains.length - 1)]);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            expectedHits += (long) threads * lookupsPerThread;
+            System.out.printf("%d thread(s): %.1f M hits/s%n",
+                    threads, threads * (double) lookupsPerThread / elapsed * 1000);
+        }
+        System.out.println("Size after hits: " + dnsCache.size() + " (max 1000)");
+        System.out.println("Counted hits: " + dnsCache.getCacheStats().getHits() + " (expected " + expectedHits + ")");
+        System.out.println("Hit latency: " + dnsCache.getHitLatency());
+    }
+
+    // Cold lookups take 100ms upstream, so warm them concurrently
+    private static void resolveInParallel(DNSCache dnsCache, String[] domains) {
+        dnsCache.resolveAll(Arrays.asList(domains)).join();
     }
 }
@@ -1,55 +1,806 @@
 package WEEK1and2;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DistributedRateLimiter {
-    private final ConcurrentHashMap<String, TokenBucket> clientBuckets;
-    private final int maxRequestsPerHour;
+    private static final int DEFAULT_MAX_TRACKED_CLIENTS = 1_000_000;
+    private static final long MAX_SWEEP_INTERVAL_MILLIS = 60_000;
+    // Work bound of one eviction step on the new-client path
+    private static final int TRIM_SCAN_LIMIT = 64;
+    private static final int TRIM_EVICT_LIMIT = 8;
+    // checkRateLimit calls slower than this are counted in the tracking stats
+    private static final long SLOW_CHECK_NANOS = 1_000_000;
+
+    private final ConcurrentHashMap<String, RateLimitBucket> clientBuckets;
+    private final int maxRequests;
     private final long windowSizeMillis;
+    private final Algorithm algorithm;
+    // Distributed mode: buckets lease batches of permits from a store shared by all nodes
+    private final RateLimitStore store;
+    private final int leaseSize;
+    // Buckets that are back to their initial state are dropped by a lazy sweep, scheduled
+    // from the new-client path at most once per sweepIntervalMillis. A new client must reserve
+    // one of maxTrackedClients slots first; when none is free it evicts a few idle or least used
+    // buckets with a bounded step that resumes where the previous one stopped.
+    private final int maxTrackedClients;
+    private final long sweepIntervalMillis;
+    private volatile long lastSweepMillis;
+    private final AtomicBoolean sweepScheduled;
+    private final AtomicInteger trackedClients;
+    private final ReentrantLock trimLock;
+    // Guarded by trimLock: where the next step resumes, and the most used permits a bucket may
+    // have and still be evicted (0 = idle only)
+    private Iterator<Map.Entry<String, RateLimitBucket>> trimCursor;
+    private int trimMaxUsed;
+    private final LongAdder createdBuckets;
+    private final LongAdder idleEvictions;
+    private final LongAdder capacityEvictions;
+    private final LongAdder slowChecks;
+    private final long createdAtMillis;
+
+    // Selectable limiting algorithms; each client gets its own bucket of the chosen kind
+    public enum Algorithm {
+        // Full refill once the window has passed (the original behaviour). Cheapest, but a
+        // client can send 2x the limit across a window boundary.
+        FIXED_WINDOW {
+            RateLimitBucket newBucket(int limit, long windowMillis) {
+                return new TokenBucket(limit, windowMillis);
+            }
+        },
+        // Refills one token every window / limit, so the bucket is never more than `limit` ahead
+        TOKEN_BUCKET {
+            RateLimitBucket newBucket(int limit, long windowMillis) {
+                return new RefillingTokenBucket(limit, windowMillis);
+            }
+        },
+        // Weights the previous window's count by how much of it still overlaps the sliding window
+        SLIDING_WINDOW {
+            RateLimitBucket newBucket(int limit, long windowMillis) {
+                return new SlidingWindowCounter(limit, windowMillis);
+            }
+        },
+        // Generic cell rate algorithm: same limits as TOKEN_BUCKET with a single long of state
+        GCRA {
+            RateLimitBucket newBucket(int limit, long windowMillis) {
+                return new GcraBucket(limit, windowMillis);
+            }
+        };
+
+        abstract RateLimitBucket newBucket(int limit, long windowMillis);
+    }
+
+    // Per-client state of one algorithm, shared by all threads checking that client
+    interface RateLimitBucket {
+        // Take `permits` (1..limit) all or nothing, without locking or allocating. Returns the
+        // permits left (>= 0) if allowed, otherwise -1 - (milliseconds until they are available).
+        long tryAcquire(int permits);
+
+        default long tryAcquire() {
+            return tryAcquire(1);
+        }
 
-    static class TokenBucket {
-        private int tokens;
-        private long lastRefillTime;
+        // Read-only view; does not write a refill back. Null once the bucket is retired.
+        RateLimitStatus getStatus();
+
+        // Retire the bucket if a fresh one would behave the same (fully refilled)
+        boolean retireIfIdle();
+
+        // Retire unconditionally. A retired bucket answers RETIRED to every tryAcquire, so a
+        // caller that raced with its removal looks the client up again instead of using it.
+        void retire();
+    }
+
+    // Counts are packed next to a timestamp in one AtomicLong, so a check is a single CAS
+    static final int TOKEN_BITS = 22;
+    static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    static final int MAX_TOKENS = (int) TOKEN_MASK;
+    // State value of a retired bucket; live states never have the sign bit set
+    static final long RETIRED = Long.MIN_VALUE;
+
+    static class TokenBucket implements RateLimitBucket {
+        // high 42 bits = window start in ms since the bucket was created, low 22 bits = tokens
+        private final AtomicLong state;
+        private final long epochMillis;
         private final int maxTokens;
         private final long refillIntervalMillis;
 
         public TokenBucket(int maxTokens, long refillIntervalMillis) {
             this.maxTokens = maxTokens;
-            this.tokens = maxTokens;
             this.refillIntervalMillis = refillIntervalMillis;
-            this.lastRefillTime = System.currentTimeMillis();
+            this.epochMillis = System.currentTimeMillis();
+            this.state = new AtomicLong(pack(0, maxTokens));
         }
 
-        public synchronized RateLimitResult tryConsume() {
-            refillTokens();
+        public long tryAcquire(int permits) {
+            long now = System.currentTimeMillis() - epochMillis;
+            while (true) {
+                long current = state.get();
+                if (current == RETIRED) {
+                    return RETIRED;
+                }
+                long next = refilled(current, now);
+                long tokens = next & TOKEN_MASK;
+                if (tokens < permits) {
+                    return -1 - Math.max(0, (next >>> TOKEN_BITS) + refillIntervalMillis - now);
+                }
+                if (state.compareAndSet(current, next - permits)) {
+                    return tokens - permits;
+                }
+            }
+        }
 
-            if (tokens > 0) {
-                tokens--;
-                return new RateLimitResult(true, tokens, 0);
-            } else {
-                long resetTime = lastRefillTime + refillIntervalMillis;
-                long retryAfterSeconds = (resetTime - System.currentTimeMillis()) / 1000;
-                return new RateLimitResult(false, 0, retryAfterSeconds);
+        public RateLimitStatus getStatus() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            if (current == RETIRED) {
+                return null;
             }
+            long next = refilled(current, now);
+            long resetTime = epochMillis + (next >>> TOKEN_BITS) + refillIntervalMillis;
+            return new RateLimitStatus(maxTokens - (int) (next & TOKEN_MASK), maxTokens, resetTime / 1000);
         }
 
-        private void refillTokens() {
-            long now = System.currentTimeMillis();
-            long timeSinceRefill = now - lastRefillTime;
+        public boolean retireIfIdle() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            return current != RETIRED && (refilled(current, now) & TOKEN_MASK) == maxTokens
+                    && state.compareAndSet(current, RETIRED);
+        }
 
-            // Refill if window has passed
-            if (timeSinceRefill >= refillIntervalMillis) {
-                tokens = maxTokens;
-                lastRefillTime = now;
+        public void retire() {
+            state.set(RETIRED);
+        }
+
+        // Refill if window has passed
+        private long refilled(long current, long now) {
+            if (now - (current >>> TOKEN_BITS) >= refillIntervalMillis) {
+                return pack(now, maxTokens);
+            }
+            return current;
+        }
+    }
+
+    static class RefillingTokenBucket implements RateLimitBucket {
+        // high 42 bits = time of the last refill in ms since the bucket was created, low 22 bits
+        // = tokens. Only whole tokens are added and the refill time advances by exactly the time
+        // they took, so the fractional remainder carries over to the next check.
+        private final AtomicLong state;
+        private final long epochMillis;
+        private final int maxTokens;
+        private final long windowMillis;
+        private final long millisPerToken;
+
+        public RefillingTokenBucket(int maxTokens, long windowMillis) {
+            this.maxTokens = maxTokens;
+            this.windowMillis = windowMillis;
+            this.millisPerToken = ceilDiv(windowMillis, maxTokens);
+            this.epochMillis = System.currentTimeMillis();
+            this.state = new AtomicLong(pack(0, maxTokens));
+        }
+
+        public long tryAcquire(int permits) {
+            long now = System.currentTimeMillis() - epochMillis;
+            while (true) {
+                long current = state.get();
+                if (current == RETIRED) {
+                    return RETIRED;
+                }
+                long next = refilled(current, now);
+                long tokens = next & TOKEN_MASK;
+                if (tokens < permits) {
+                    long missing = permits - tokens;
+                    long refillAt = missing == 1 ? millisPerToken : ceilDiv(missing * windowMillis, maxTokens);
+                    return -1 - Math.max(0, (next >>> TOKEN_BITS) + refillAt - now);
+                }
+                if (state.compareAndSet(current, next - permits)) {
+                    return tokens - permits;
+                }
             }
         }
 
-        public synchronized RateLimitStatus getStatus() {
-            refillTokens();
-            int used = maxTokens - tokens;
-            long resetTime = lastRefillTime + refillIntervalMillis;
+        public RateLimitStatus getStatus() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            if (current == RETIRED) {
+                return null;
+            }
+            long next = refilled(current, now);
+            int used = maxTokens - (int) (next & TOKEN_MASK);
+            long resetTime = epochMillis + now + ceilDiv(used * windowMillis, maxTokens);
             return new RateLimitStatus(used, maxTokens, resetTime / 1000);
         }
+
+        public boolean retireIfIdle() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            return current != RETIRED && (refilled(current, now) & TOKEN_MASK) == maxTokens
+                    && state.compareAndSet(current, RETIRED);
+        }
+
+        public void retire() {
+            state.set(RETIRED);
+        }
+
+        private long refilled(long current, long now) {
+            long lastRefill = current >>> TOKEN_BITS;
+            long tokens = current & TOKEN_MASK;
+            long elapsed = now - lastRefill;
+            if (elapsed >= windowMillis) {
+                return pack(now, maxTokens);
+            }
+            long added = elapsed <= 0 ? 0 : elapsed * maxTokens / windowMillis;
+            if (added == 0) {
+                return current;
+            }
+            tokens = Math.min(maxTokens, tokens + added);
+            // A full bucket does not bank time
+            lastRefill = tokens == maxTokens ? now : lastRefill + ceilDiv(added * windowMillis, maxTokens);
+            return pack(lastRefill, (int) tokens);
+        }
+    }
+
+    static class SlidingWindowCounter implements RateLimitBucket {
+        // 19 bits below the sign = index of the current fixed window (wrapping), 22 bits = count in
+        // the previous window, low 22 bits = count in the current window. The estimate is
+        // previous * (unelapsed share of the current window) + current.
+        private static final int INDEX_SHIFT = 2 * TOKEN_BITS;
+        private static final long INDEX_MASK = (1L << (63 - INDEX_SHIFT)) - 1;
+
+        private final AtomicLong state;
+        private final long epochMillis;
+        private final int limit;
+        private final long windowMillis;
+
+        public SlidingWindowCounter(int limit, long windowMillis) {
+            this.limit = limit;
+            this.windowMillis = windowMillis;
+            this.epochMillis = System.currentTimeMillis();
+            this.state = new AtomicLong();
+        }
+
+        public long tryAcquire(int permits) {
+            long now = System.currentTimeMillis() - epochMillis;
+            long elapsed = now % windowMillis;
+            while (true) {
+                long current = state.get();
+                if (current == RETIRED) {
+                    return RETIRED;
+                }
+                long next = rolled(current, now);
+                long previous = (next >>> TOKEN_BITS) & TOKEN_MASK;
+                long count = next & TOKEN_MASK;
+                // Scaled by windowMillis to stay in integers
+                long headroom = limit * windowMillis - previous * (windowMillis - elapsed)
+                        - (count + permits) * windowMillis;
+                if (headroom < 0) {
+                    return -1 - retryAfterMillis(previous, count, elapsed, permits);
+                }
+                if (state.compareAndSet(current, next + permits)) {
+                    return headroom / windowMillis;
+                }
+            }
+        }
+
+        public RateLimitStatus getStatus() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            if (current == RETIRED) {
+                return null;
+            }
+            long next = rolled(current, now);
+            long previous = (next >>> TOKEN_BITS) & TOKEN_MASK;
+            long count = next & TOKEN_MASK;
+            long used = ceilDiv(previous * (windowMillis - now % windowMillis), windowMillis) + count;
+            // Everything has slid out once a window with no requests has fully passed
+            long windowsLeft = count > 0 ? 2 : previous > 0 ? 1 : 0;
+            long resetTime = epochMillis + (now / windowMillis + windowsLeft) * windowMillis;
+            return new RateLimitStatus((int) Math.min(used, limit), limit, resetTime / 1000);
+        }
+
+        public boolean retireIfIdle() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            return current != RETIRED && (rolled(current, now) & (TOKEN_MASK << TOKEN_BITS | TOKEN_MASK)) == 0
+                    && state.compareAndSet(current, RETIRED);
+        }
+
+        public void retire() {
+            state.set(RETIRED);
+        }
+
+        // Shift the counts if one or more fixed windows have started since the last request
+        private long rolled(long current, long now) {
+            long index = (now / windowMillis) & INDEX_MASK;
+            long passed = (index - (current >>> INDEX_SHIFT)) & INDEX_MASK;
+            if (passed == 0) {
+                return current;
+            }
+            long previous = passed == 1 ? current & TOKEN_MASK : 0;
+            return index << INDEX_SHIFT | previous << TOKEN_BITS;
+        }
+
+        // Earliest moment `permits` more fit, first within this window, else the next one
+        private long retryAfterMillis(long previous, long count, long elapsed, int permits) {
+            long room = limit - count - permits;
+            if (room >= 0 && previous > 0) {
+                long fitsAt = windowMillis - room * windowMillis / previous;
+                if (fitsAt < windowMillis) {
+                    return Math.max(1, fitsAt - elapsed);
+                }
+            }
+            long fitsAt = count == 0 ? 0 : Math.max(0, windowMillis - (limit - permits) * windowMillis / count);
+            return windowMillis - elapsed + fitsAt;
+        }
+    }
+
+    static class GcraBucket implements RateLimitBucket {
+        // The only state is the theoretical arrival time (TAT) since the bucket was created.
+        // Each request pushes TAT one emission interval (window / limit) further, and is allowed
+        // while TAT stays within one window of now. Time is counted in units of 1/limit ms, so
+        // the interval is exactly windowMillis units for any limit: no rounding, no rate cap.
+        private final AtomicLong theoreticalArrival;
+        private final long epochMillis;
+        private final int limit;
+        private final long windowMillis;
+        private final long windowUnits;
+
+        public GcraBucket(int limit, long windowMillis) {
+            this.limit = limit;
+            this.windowMillis = windowMillis;
+            this.windowUnits = windowMillis * limit;
+            this.epochMillis = System.currentTimeMillis();
+            this.theoreticalArrival = new AtomicLong();
+        }
+
+        private long now() {
+            return (System.currentTimeMillis() - epochMillis) * limit;
+        }
+
+        public long tryAcquire(int permits) {
+            long now = now();
+            while (true) {
+                long tat = theoreticalArrival.get();
+                if (tat == RETIRED) {
+                    return RETIRED;
+                }
+                long next = Math.max(tat, now) + permits * windowMillis;
+                if (next - now > windowUnits) {
+                    return -1 - ceilDiv(next - windowUnits - now, limit);
+                }
+                if (theoreticalArrival.compareAndSet(tat, next)) {
+                    return Math.min(limit - 1, (windowUnits - (next - now)) / windowMillis);
+                }
+            }
+        }
+
+        public RateLimitStatus getStatus() {
+            long now = now();
+            long tat = theoreticalArrival.get();
+            if (tat == RETIRED) {
+                return null;
+            }
+            tat = Math.max(tat, now);
+            int used = (int) Math.min(limit, ceilDiv(tat - now, windowMillis));
+            return new RateLimitStatus(used, limit, (epochMillis + tat / limit) / 1000);
+        }
+
+        public boolean retireIfIdle() {
+            long now = now();
+            long tat = theoreticalArrival.get();
+            return tat != RETIRED && tat <= now && theoreticalArrival.compareAndSet(tat, RETIRED);
+        }
+
+        public void retire() {
+            theoreticalArrival.set(RETIRED);
+        }
+    }
+
+    // Shared permit counter behind all gateway nodes. Budgets are fixed windows aligned to the
+    // store's clock, so every node agrees on when a client's budget resets.
+    public interface RateLimitStore {
+        // Grant up to `requested` of the client's `limit` permits for the current window
+        Lease acquire(String clientId, int requested, int limit, long windowMillis) throws IOException;
+
+        // Hand back permits of a lease that ends at windowEndMillis and was never used
+        void release(String clientId, int permits, long windowEndMillis) throws IOException;
+    }
+
+    public static class Lease {
+        final int granted;
+        final int remaining; // left in the shared budget after this grant
+        final long windowEndMillis;
+
+        public Lease(int granted, int remaining, long windowEndMillis) {
+            this.granted = granted;
+            this.remaining = remaining;
+            this.windowEndMillis = windowEndMillis;
+        }
+    }
+
+    // Store kept in this JVM; also the backing store of RateLimitStoreServer
+    public static class InMemoryRateLimitStore implements RateLimitStore {
+        // Per client: high 42 bits = end of the current window in epoch ms, low 22 bits =
+        // permits granted in it. Expired counters are retired and dropped by a cleanup that runs
+        // on the common pool at most once per window, so no caller pays for the scan.
+        private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        private final LongAdder requests = new LongAdder();
+        private final AtomicBoolean cleanupScheduled = new AtomicBoolean();
+        private volatile long nextCleanupMillis;
+
+        public Lease acquire(String clientId, int requested, int limit, long windowMillis) {
+            requests.increment();
+            long now = System.currentTimeMillis();
+            long windowEnd = (now / windowMillis + 1) * windowMillis;
+            if (now >= nextCleanupMillis && cleanupScheduled.compareAndSet(false, true)) {
+                nextCleanupMillis = now + windowMillis;
+                ForkJoinPool.commonPool().execute(this::cleanupTask);
+            }
+            while (true) {
+                AtomicLong counter = counters.computeIfAbsent(clientId, k -> new AtomicLong());
+                long current = counter.get();
+                if (current == RETIRED) {
+                    counters.remove(clientId, counter);
+                    continue;
+                }
+                long used = (current >>> TOKEN_BITS) == windowEnd ? current & TOKEN_MASK : 0;
+                int granted = (int) Math.max(0, Math.min(requested, limit - used));
+                if (granted == 0 || counter.compareAndSet(current, pack(windowEnd, (int) used + granted))) {
+                    return new Lease(granted, (int) Math.max(0, limit - used - granted), windowEnd);
+                }
+            }
+        }
+
+        public void release(String clientId, int permits, long windowEndMillis) {
+            AtomicLong counter = counters.get(clientId);
+            while (counter != null) {
+                long current = counter.get();
+                if (current == RETIRED || (current >>> TOKEN_BITS) != windowEndMillis) {
+                    return; // that window is over, nothing to give back
+                }
+                long used = Math.max(0, (current & TOKEN_MASK) - permits);
+                if (counter.compareAndSet(current, pack(windowEndMillis, (int) used))) {
+                    return;
+                }
+            }
+        }
+
+        private void cleanupTask() {
+            try {
+                removeExpired(System.currentTimeMillis());
+            } finally {
+                cleanupScheduled.set(false);
+            }
+        }
+
+        private void removeExpired(long now) {
+            for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+                AtomicLong counter = entry.getValue();
+                long current = counter.get();
+                if (current != RETIRED && (current >>> TOKEN_BITS) <= now && counter.compareAndSet(current, RETIRED)) {
+                    counters.remove(entry.getKey(), counter);
+                }
+            }
+        }
+
+        // Number of acquire calls served, i.e. store round trips
+        public long getRequestCount() {
+            return requests.sum();
+        }
+    }
+
+    // Serves a store over TCP on the loopback interface: a local stand-in for a shared counter
+    // service. Acquire request: byte 'A', UTF clientId, int requested, int limit, long windowMillis;
+    // response: int granted, int remaining, long windowEndMillis. Release request: byte 'R',
+    // UTF clientId, int permits, long windowEndMillis; response: byte 0.
+    public static class RateLimitStoreServer implements Closeable {
+        static final byte OP_ACQUIRE = 'A';
+        static final byte OP_RELEASE = 'R';
+        private static final long ACCEPT_RETRY_MILLIS = 100;
+
+        private final RateLimitStore store;
+        private final ServerSocket serverSocket;
+
+        public RateLimitStoreServer(RateLimitStore store) throws IOException {
+            this.store = store;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this::acceptLoop, "rate-limit-store-server");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        public int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread handler = new Thread(() -> serve(socket), "rate-limit-store-connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        return;
+                    }
+                    // e.g. out of file descriptors: report and back off instead of spinning
+                    System.err.println("Rate limit store accept failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(ACCEPT_RETRY_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                socket.setTcpNoDelay(true);
+                while (true) {
+                    int op = in.readByte();
+                    if (op == OP_ACQUIRE) {
+                        Lease lease = store.acquire(in.readUTF(), in.readInt(), in.readInt(), in.readLong());
+                        out.writeInt(lease.granted);
+                        out.writeInt(lease.remaining);
+                        out.writeLong(lease.windowEndMillis);
+                    } else if (op == OP_RELEASE) {
+                        store.release(in.readUTF(), in.readInt(), in.readLong());
+                        out.writeByte(0);
+                    } else {
+                        throw new IOException("unknown op " + op);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // client disconnected
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    // Client side of RateLimitStoreServer. One connection, so requests from this node are
+    // serialized; a broken connection is reopened on the next call.
+    public static class TcpRateLimitStore implements RateLimitStore, Closeable {
+        private final String host;
+        private final int port;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        public TcpRateLimitStore(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public synchronized Lease acquire(String clientId, int requested, int limit, long windowMillis)
+                throws IOException {
+            connect();
+            try {
+                out.writeByte(RateLimitStoreServer.OP_ACQUIRE);
+                out.writeUTF(clientId);
+                out.writeInt(requested);
+                out.writeInt(limit);
+                out.writeLong(windowMillis);
+                out.flush();
+                return new Lease(in.readInt(), in.readInt(), in.readLong());
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public synchronized void release(String clientId, int permits, long windowEndMillis) throws IOException {
+            connect();
+            try {
+                out.writeByte(RateLimitStoreServer.OP_RELEASE);
+                out.writeUTF(clientId);
+                out.writeInt(permits);
+                out.writeLong(windowEndMillis);
+                out.flush();
+                in.readByte();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void connect() throws IOException {
+            if (socket == null) {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } finally {
+                    socket = null;
+                }
+            }
+        }
+    }
+
+    static class LeasedBucket implements RateLimitBucket {
+        // Permits are taken from the store in leases of leaseSize and spent locally, so only one
+        // request per lease pays the round trip. The store never grants more than the limit, so
+        // nodes together cannot over-admit; permits still leased when the window ends are lost.
+        // bit 62 = shared budget exhausted, then 40 bits = lease end (the store's window end) in
+        // ms since the bucket was created, low 22 bits = permits left in the lease.
+        private static final long EXHAUSTED = 1L << 62;
+        private static final long END_MASK = (1L << 40) - 1;
+        // A failing store denies for this long instead of over-admitting (fail closed)
+        private static final long STORE_RETRY_MILLIS = 1000;
+
+        private final AtomicLong state;
+        private final long epochMillis;
+        private final String clientId;
+        private final RateLimitStore store;
+        private final int limit;
+        private final long windowMillis;
+        private final int leaseSize;
+        // One thread renews the lease while the others wait for it
+        private final ReentrantLock leaseLock;
+        private volatile int storeRemaining;
+
+        public LeasedBucket(String clientId, RateLimitStore store, int limit, long windowMillis, int leaseSize) {
+            this.clientId = clientId;
+            this.store = store;
+            this.limit = limit;
+            this.windowMillis = windowMillis;
+            this.leaseSize = leaseSize;
+            this.epochMillis = System.currentTimeMillis();
+            this.state = new AtomicLong();
+            this.leaseLock = new ReentrantLock();
+            this.storeRemaining = limit;
+        }
+
+        public long tryAcquire(int permits) {
+            while (true) {
+                long current = state.get();
+                if (current == RETIRED) {
+                    return RETIRED;
+                }
+                long now = System.currentTimeMillis() - epochMillis;
+                long leaseEnd = (current >>> TOKEN_BITS) & END_MASK;
+                long tokens = current & TOKEN_MASK;
+                if (now < leaseEnd) {
+                    if (tokens >= permits) {
+                        if (state.compareAndSet(current, current - permits)) {
+                            return storeRemaining + tokens - permits;
+                        }
+                        continue;
+                    }
+                    if ((current & EXHAUSTED) != 0) {
+                        return -1 - (leaseEnd - now);
+                    }
+                }
+                renewLease(current, now, permits);
+            }
+        }
+
+        // Top the lease up; permits left from the current window's lease are kept
+        private void renewLease(long seen, long now, int permits) {
+            leaseLock.lock();
+            try {
+                if (state.get() != seen) {
+                    return; // renewed (or retired) while we waited
+                }
+                int tokens = now < ((seen >>> TOKEN_BITS) & END_MASK) ? (int) (seen & TOKEN_MASK) : 0;
+                Lease lease;
+                try {
+                    lease = store.acquire(clientId, Math.max(leaseSize, permits - tokens), limit, windowMillis);
+                } catch (IOException e) {
+                    backOff(now);
+                    return;
+                }
+                mergeLease(lease, now);
+            } finally {
+                leaseLock.unlock();
+            }
+        }
+
+        // Add the new lease to whatever the lock-free fast path left of the current one. Other
+        // threads keep spending tokens during the round trip, so this retries rather than
+        // overwriting; if the bucket was retired meanwhile the permits go back to the store.
+        private void mergeLease(Lease lease, long now) {
+            long leaseEnd = Math.max(now + 1, lease.windowEndMillis - epochMillis);
+            while (true) {
+                long current = state.get();
+                if (current == RETIRED) {
+                    if (lease.granted > 0) {
+                        try {
+                            store.release(clientId, lease.granted, lease.windowEndMillis);
+                        } catch (IOException e) {
+                            // the permits stay counted as used until the window ends
+                        }
+                    }
+                    return;
+                }
+                // Tokens of an earlier window are void
+                long left = ((current >>> TOKEN_BITS) & END_MASK) == leaseEnd ? current & TOKEN_MASK : 0;
+                long next = (lease.granted == 0 ? EXHAUSTED : 0) | pack(leaseEnd, (int) (left + lease.granted));
+                if (state.compareAndSet(current, next)) {
+                    storeRemaining = lease.remaining;
+                    return;
+                }
+            }
+        }
+
+        // The store is unreachable: deny for STORE_RETRY_MILLIS once the current lease is spent
+        private void backOff(long now) {
+            while (true) {
+                long current = state.get();
+                if (current == RETIRED) {
+                    return;
+                }
+                long leaseEnd = (current >>> TOKEN_BITS) & END_MASK;
+                long next = now < leaseEnd
+                        ? current | EXHAUSTED
+                        : EXHAUSTED | pack(now + STORE_RETRY_MILLIS, 0);
+                if (state.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        // As of the last lease: the shared budget other nodes have used plus this node's use
+        public RateLimitStatus getStatus() {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            if (current == RETIRED) {
+                return null;
+            }
+            long leaseEnd = (current >>> TOKEN_BITS) & END_MASK;
+            if (now >= leaseEnd) {
+                return new RateLimitStatus(0, limit, (epochMillis + now + windowMillis) / 1000);
+            }
+            int left = (current & EXHAUSTED) != 0 ? 0 : storeRemaining + (int) (current & TOKEN_MASK);
+            return new RateLimitStatus(limit - left, limit, (epochMillis + leaseEnd) / 1000);
+        }
+
+        // Idle once the lease has run out with the window, so no leased permit is dropped
+        public boolean retireIfIdle() {
+            long current = state.get();
+            return current != RETIRED
+                    && System.currentTimeMillis() - epochMillis >= ((current >>> TOKEN_BITS) & END_MASK)
+                    && state.compareAndSet(current, RETIRED);
+        }
+
+        public void retire() {
+            state.set(RETIRED);
+        }
+    }
+
+    private static long pack(long millis, int tokens) {
+        return millis << TOKEN_BITS | tokens;
+    }
+
+    // Math.ceilDiv needs Java 18; arguments here are non-negative
+    private static long ceilDiv(long x, long y) {
+        return (x + y - 1) / y;
     }
 
     static class RateLimitResult {
@@ -92,42 +843,367 @@ public class DistributedRateLimiter {
         }
     }
 
+    static class TrackingStats {
+        private final int trackedClients;
+        private final int maxTrackedClients;
+        private final long createdBuckets;
+        private final long idleEvictions;
+        private final long capacityEvictions;
+        private final long slowChecks;
+        private final long timestampMillis;
+
+        TrackingStats(int trackedClients, int maxTrackedClients, long createdBuckets,
+                      long idleEvictions, long capacityEvictions, long slowChecks, long timestampMillis) {
+            this.trackedClients = trackedClients;
+            this.maxTrackedClients = maxTrackedClients;
+            this.createdBuckets = createdBuckets;
+            this.idleEvictions = idleEvictions;
+            this.capacityEvictions = capacityEvictions;
+            this.slowChecks = slowChecks;
+            this.timestampMillis = timestampMillis;
+        }
+
+        public int getTrackedClients() {
+            return trackedClients;
+        }
+
+        public int getMaxTrackedClients() {
+            return maxTrackedClients;
+        }
+
+        public long getCreatedBuckets() {
+            return createdBuckets;
+        }
+
+        public long getIdleEvictions() {
+            return idleEvictions;
+        }
+
+        public long getCapacityEvictions() {
+            return capacityEvictions;
+        }
+
+        // checkRateLimit calls that took longer than 1ms
+        public long getSlowChecks() {
+            return slowChecks;
+        }
+
+        public long getEvictions() {
+            return idleEvictions + capacityEvictions;
+        }
+
+        // Evictions per second between an earlier snapshot and this one
+        public double evictionRateSince(TrackingStats earlier) {
+            long elapsedMillis = Math.max(1, timestampMillis - earlier.timestampMillis);
+            return (getEvictions() - earlier.getEvictions()) * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{tracked: %d/%d, created: %d, evicted idle: %d, evicted at capacity: %d,"
+                            + " slow checks: %d}",
+                    trackedClients, maxTrackedClients, createdBuckets, idleEvictions, capacityEvictions, slowChecks);
+        }
+    }
+
     public DistributedRateLimiter(int maxRequestsPerHour) {
+        this(maxRequestsPerHour, 60 * 60 * 1000, Algorithm.FIXED_WINDOW); // 1 hour in milliseconds
+    }
+
+    public DistributedRateLimiter(int maxRequests, long windowSizeMillis, Algorithm algorithm) {
+        this(maxRequests, windowSizeMillis, algorithm, DEFAULT_MAX_TRACKED_CLIENTS);
+    }
+
+    public DistributedRateLimiter(int maxRequests, long windowSizeMillis, Algorithm algorithm,
+                                  int maxTrackedClients) {
+        this(maxRequests, windowSizeMillis, algorithm, maxTrackedClients, null, 0);
+    }
+
+    // Distributed mode: all nodes built on the same store share one budget per client
+    public DistributedRateLimiter(int maxRequests, long windowSizeMillis, RateLimitStore store, int leaseSize) {
+        this(maxRequests, windowSizeMillis, Algorithm.FIXED_WINDOW, DEFAULT_MAX_TRACKED_CLIENTS, store, leaseSize);
+        if (store == null || leaseSize < 1 || leaseSize > maxRequests) {
+            throw new IllegalArgumentException("store is required and leaseSize must be in [1, maxRequests]");
+        }
+    }
+
+    private DistributedRateLimiter(int maxRequests, long windowSizeMillis, Algorithm algorithm,
+                                   int maxTrackedClients, RateLimitStore store, int leaseSize) {
+        if (maxRequests < 1 || maxRequests > MAX_TOKENS) {
+            throw new IllegalArgumentException("maxRequests must be in [1, " + MAX_TOKENS + "]");
+        }
+        // Window arithmetic is done in microseconds and scaled by counts of up to 2^22
+        if (windowSizeMillis <= 0 || windowSizeMillis > (Long.MAX_VALUE >> (TOKEN_BITS + 2)) / 1000) {
+            throw new IllegalArgumentException("windowSizeMillis out of range: " + windowSizeMillis);
+        }
         this.clientBuckets = new ConcurrentHashMap<>();
-        this.maxRequestsPerHour = maxRequestsPerHour;
-        this.windowSizeMillis = 60 * 60 * 1000; // 1 hour in milliseconds
+        this.maxRequests = maxRequests;
+        this.windowSizeMillis = windowSizeMillis;
+        this.algorithm = algorithm;
+        this.store = store;
+        this.leaseSize = leaseSize;
+        if (maxTrackedClients < 1) {
+            throw new IllegalArgumentException("maxTrackedClients must be positive");
+        }
+        this.maxTrackedClients = maxTrackedClients;
+        this.sweepIntervalMillis = Math.min(windowSizeMillis, MAX_SWEEP_INTERVAL_MILLIS);
+        this.createdAtMillis = System.currentTimeMillis();
+        this.lastSweepMillis = createdAtMillis;
+        this.sweepScheduled = new AtomicBoolean();
+        this.trackedClients = new AtomicInteger();
+        this.trimLock = new ReentrantLock();
+        this.trimCursor = Collections.emptyIterator();
+        this.createdBuckets = new LongAdder();
+        this.idleEvictions = new LongAdder();
+        this.capacityEvictions = new LongAdder();
+        this.slowChecks = new LongAdder();
     }
 
     // Check rate limit for client (O(1) operation)
     public RateLimitResult checkRateLimit(String clientId) {
-        TokenBucket bucket = clientBuckets.computeIfAbsent(clientId,
-                k -> new TokenBucket(maxRequestsPerHour, windowSizeMillis));
-
         long startTime = System.nanoTime();
-        RateLimitResult result = bucket.tryConsume();
-        long endTime = System.nanoTime();
+        RateLimitResult result = toResult(acquire(clientId, 1));
+        if (System.nanoTime() - startTime > SLOW_CHECK_NANOS) {
+            slowChecks.increment(); // no I/O on the request path; reported via getTrackingStats
+        }
+        return result;
+    }
 
-        long latencyMicros = (endTime - startTime) / 1000;
-        if (latencyMicros > 1000) { // More than 1ms
-            System.out.println("Warning: Rate limit check took " + latencyMicros + "μs");
+    // Build the detailed result from a bucket's packed outcome
+    private static RateLimitResult toResult(long outcome) {
+        if (outcome >= 0) {
+            return new RateLimitResult(true, (int) outcome, 0);
         }
+        return new RateLimitResult(false, 0, ceilDiv(-1 - outcome, 1000));
+    }
 
-        return result;
+    // Allocation-free check for callers that only need the decision; takes no lock
+    public boolean tryAcquire(String clientId) {
+        return acquire(clientId, 1) >= 0;
+    }
+
+    public boolean tryAcquire(String clientId, int permits) {
+        return acquire(clientId, permits) >= 0;
+    }
+
+    // Decide a batch: request i asks clientIds[i] for permits[i]. Requests are grouped by client
+    // and each client's total is taken with one lookup and one CAS; only a client that cannot
+    // have the whole total falls back to deciding its requests one by one, in order.
+    // Result i is the packed outcome: permits left (>= 0) if allowed, else -1 - retry millis
+    // (see isAllowed and retryAfterMillis).
+    public long[] checkRateLimits(String[] clientIds, int[] permits) {
+        if (clientIds.length != permits.length) {
+            throw new IllegalArgumentException("clientIds and permits differ in length");
+        }
+        int n = clientIds.length;
+        long[] results = new long[n];
+        // Group by client with an open-addressed table of group numbers (no boxing); each
+        // group chains its requests through nextOfClient, in request order
+        int[] slots = new int[Integer.highestOneBit(Math.max(1, n) * 2 - 1) * 2];
+        int mask = slots.length - 1;
+        int[] groupFirst = new int[n];
+        int[] groupLast = new int[n];
+        long[] groupTotal = new long[n];
+        int[] nextOfClient = new int[n];
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            if (permits[i] < 1) {
+                throw new IllegalArgumentException("permits must be positive: " + permits[i]);
+            }
+            nextOfClient[i] = -1;
+            int hash = clientIds[i].hashCode() * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask; // fold the well-mixed high bits into the mask
+            while (slots[slot] != 0 && !clientIds[groupFirst[slots[slot] - 1]].equals(clientIds[i])) {
+                slot = (slot + 1) & mask;
+            }
+            int group = slots[slot] - 1;
+            if (group < 0) {
+                group = groups++;
+                slots[slot] = group + 1;
+                groupFirst[group] = i;
+            } else {
+                nextOfClient[groupLast[group]] = i;
+            }
+            groupLast[group] = i;
+            groupTotal[group] += permits[i];
+        }
+        for (int group = 0; group < groups; group++) {
+            int first = groupFirst[group];
+            String clientId = clientIds[first];
+            long total = groupTotal[group];
+            long outcome = total <= maxRequests ? acquire(clientId, (int) total) : -1;
+            if (outcome >= 0) {
+                // What each request would have seen, had they been checked in order
+                for (int i = first; i != -1; i = nextOfClient[i]) {
+                    total -= permits[i];
+                    results[i] = outcome + total;
+                }
+            } else {
+                for (int i = first; i != -1; i = nextOfClient[i]) {
+                    results[i] = acquire(clientId, permits[i]);
+                }
+            }
+        }
+        return results;
+    }
+
+    // Decoding the packed outcomes of checkRateLimits
+    public static boolean isAllowed(long outcome) {
+        return outcome >= 0;
+    }
+
+    public static long retryAfterMillis(long outcome) {
+        return outcome >= 0 ? 0 : -1 - outcome;
+    }
+
+    // Packed outcome of taking permits; retries if the bucket was retired under us
+    private long acquire(String clientId, int permits) {
+        if (permits > maxRequests) {
+            return -1 - windowSizeMillis; // can never be granted
+        }
+        while (true) {
+            RateLimitBucket bucket = bucketFor(clientId);
+            long outcome = bucket.tryAcquire(permits);
+            if (outcome != RETIRED) {
+                return outcome;
+            }
+            unlink(clientId, bucket);
+        }
+    }
+
+    // Plain get first; a new client reserves a slot under the cap before it is inserted, and
+    // gives the slot back if another thread inserted the same client first
+    private RateLimitBucket bucketFor(String clientId) {
+        RateLimitBucket bucket = clientBuckets.get(clientId);
+        if (bucket != null) {
+            return bucket;
+        }
+        scheduleSweep();
+        while (!reserveSlot()) {
+            trimStep();
+        }
+        RateLimitBucket created = store == null ? algorithm.newBucket(maxRequests, windowSizeMillis)
+                : new LeasedBucket(clientId, store, maxRequests, windowSizeMillis, leaseSize);
+        bucket = clientBuckets.putIfAbsent(clientId, created);
+        if (bucket != null) {
+            trackedClients.decrementAndGet();
+            return bucket;
+        }
+        createdBuckets.increment();
+        return created;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int tracked = trackedClients.get();
+            if (tracked >= maxTrackedClients) {
+                return false;
+            }
+            if (trackedClients.compareAndSet(tracked, tracked + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean unlink(String clientId, RateLimitBucket bucket) {
+        if (clientBuckets.remove(clientId, bucket)) {
+            trackedClients.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void scheduleSweep() {
+        if (System.currentTimeMillis() - lastSweepMillis >= sweepIntervalMillis
+                && sweepScheduled.compareAndSet(false, true)) {
+            ForkJoinPool.commonPool().execute(this::sweepTask);
+        }
+    }
+
+    private void sweepTask() {
+        try {
+            sweepIdleClients();
+        } finally {
+            sweepScheduled.set(false);
+        }
+    }
+
+    // Drop every bucket that is back to its initial state; returns how many were dropped
+    public int sweepIdleClients() {
+        lastSweepMillis = System.currentTimeMillis();
+        int evicted = 0;
+        for (Map.Entry<String, RateLimitBucket> entry : clientBuckets.entrySet()) {
+            RateLimitBucket bucket = entry.getValue();
+            if (bucket.retireIfIdle() && unlink(entry.getKey(), bucket)) {
+                idleEvictions.increment();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    // One bounded eviction step: scan up to TRIM_SCAN_LIMIT buckets from the cursor and evict
+    // up to TRIM_EVICT_LIMIT of them. Threads that find the cap full wait here for their turn,
+    // and return at once if an earlier step already made room. A step that finds no victim
+    // doubles trimMaxUsed, so a caller needs at most ~log2(maxRequests) steps; each full pass
+    // halves it again so that idle and lightly used buckets stay the preferred victims.
+    private void trimStep() {
+        trimLock.lock();
+        try {
+            if (trackedClients.get() < maxTrackedClients) {
+                return;
+            }
+            int evicted = 0;
+            for (int scanned = 0; scanned < TRIM_SCAN_LIMIT && evicted < TRIM_EVICT_LIMIT; scanned++) {
+                if (!trimCursor.hasNext()) {
+                    trimMaxUsed /= 2;
+                    trimCursor = clientBuckets.entrySet().iterator();
+                    if (!trimCursor.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, RateLimitBucket> entry = trimCursor.next();
+                RateLimitBucket bucket = entry.getValue();
+                if (bucket.retireIfIdle()) {
+                    if (unlink(entry.getKey(), bucket)) {
+                        idleEvictions.increment();
+                        evicted++;
+                    }
+                } else if (trimMaxUsed > 0) {
+                    RateLimitStatus status = bucket.getStatus();
+                    if (status == null || status.used <= trimMaxUsed) {
+                        bucket.retire();
+                        if (unlink(entry.getKey(), bucket)) {
+                            capacityEvictions.increment();
+                            evicted++;
+                        }
+                    }
+                }
+            }
+            if (evicted == 0 && trimMaxUsed < maxRequests) {
+                trimMaxUsed = trimMaxUsed * 2 + 1;
+            }
+        } finally {
+            trimLock.unlock();
+        }
     }
 
     // Get rate limit status for client
     public RateLimitStatus getRateLimitStatus(String clientId) {
-        TokenBucket bucket = clientBuckets.get(clientId);
-        if (bucket == null) {
-            return new RateLimitStatus(0, maxRequestsPerHour,
+        RateLimitBucket bucket = clientBuckets.get(clientId);
+        RateLimitStatus status = bucket == null ? null : bucket.getStatus();
+        if (status == null) {
+            return new RateLimitStatus(0, maxRequests,
                     (System.currentTimeMillis() + windowSizeMillis) / 1000);
         }
-        return bucket.getStatus();
+        return status;
     }
 
     // Clear all rate limits (for testing)
     public void clearAll() {
-        clientBuckets.clear();
+        for (Map.Entry<String, RateLimitBucket> entry : clientBuckets.entrySet()) {
+            unlink(entry.getKey(), entry.getValue());
+        }
     }
 
     // Get total number of tracked clients
@@ -135,6 +1211,12 @@ public class DistributedRateLimiter {
         return clientBuckets.size();
     }
 
+    // Tracked clients plus bucket creation and eviction counters
+    public TrackingStats getTrackingStats() {
+        return new TrackingStats(clientBuckets.size(), maxTrackedClients, createdBuckets.sum(),
+                idleEvictions.sum(), capacityEvictions.sum(), slowChecks.sum(), System.currentTimeMillis());
+    }
+
     public static void main(String[] args) throws InterruptedException {
         DistributedRateLimiter limiter = new DistributedRateLimiter(1000);
 
@@ -163,5 +1245,304 @@ public class DistributedRateLimiter {
         System.out.println("Client def456: " + limiter.checkRateLimit("def456"));
 
         System.out.println("\nTotal tracked clients: " + limiter.getTrackedClientsCount());
+
+        hotKeyContention();
+        allocationCheck();
+        boundaryBurst();
+        fullBudgetCheck();
+        scrapingTraffic();
+        sharedStoreAcrossNodes();
+        batchChecks();
+    }
+
+    // Bulk ingest: batches of 4096 requests from 16 clients, decided one by one vs as a batch
+    private static void batchChecks() {
+        System.out.println("\n=== Batch checks (4096 requests from 16 clients per batch) ===");
+        int batchSize = 4096;
+        String[] clientIds = new String[batchSize];
+        int[] permits = new int[batchSize];
+        Random random = new Random(11);
+        for (int i = 0; i < batchSize; i++) {
+            clientIds[i] = "ingest-" + random.nextInt(16);
+            permits[i] = 1 + random.nextInt(3);
+        }
+
+        DistributedRateLimiter small = new DistributedRateLimiter(100, 60_000, Algorithm.TOKEN_BUCKET);
+        long[] results = small.checkRateLimits(clientIds, permits);
+        int allowed = 0;
+        long granted = 0;
+        long maxRetry = 0;
+        for (int i = 0; i < batchSize; i++) {
+            if (isAllowed(results[i])) {
+                allowed++;
+                granted += permits[i];
+            }
+            maxRetry = Math.max(maxRetry, retryAfterMillis(results[i]));
+        }
+        System.out.printf("Limit 100 per client: allowed %d requests, %d permits (at most %d), max retry-after %dms%n",
+                allowed, granted, 16 * 100, maxRetry);
+
+        int batches = 500;
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            DistributedRateLimiter perRequest = new DistributedRateLimiter(MAX_TOKENS, 60_000, Algorithm.FIXED_WINDOW);
+            DistributedRateLimiter batched = new DistributedRateLimiter(MAX_TOKENS, 60_000, Algorithm.FIXED_WINDOW);
+            long start = System.nanoTime();
+            for (int b = 0; b < batches; b++) {
+                for (int i = 0; i < batchSize; i++) {
+                    perRequest.tryAcquire(clientIds[i], permits[i]);
+                }
+            }
+            long perRequestNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int b = 0; b < batches; b++) {
+                batched.checkRateLimits(clientIds, permits);
+            }
+            long batchedNanos = System.nanoTime() - start;
+            if (round == 1) {
+                double requests = (double) batches * batchSize;
+                System.out.printf("Per request: %.1f ns/request, batched: %.1f ns/request (%.1fx), same state: %s%n",
+                        perRequestNanos / requests, batchedNanos / requests, (double) perRequestNanos / batchedNanos,
+                        perRequest.getRateLimitStatus("ingest-0").used == batched.getRateLimitStatus("ingest-0").used);
+            }
+        }
+    }
+
+    // Three gateway nodes hammer one API key: with local state each admits the full limit,
+    // with a shared store they admit it together
+    private static void sharedStoreAcrossNodes() throws InterruptedException {
+        System.out.println("\n=== Three nodes, one API key (limit 1000 per minute, lease 50) ===");
+        InMemoryRateLimitStore backing = new InMemoryRateLimitStore();
+        try (RateLimitStoreServer server = new RateLimitStoreServer(new InMemoryRateLimitStore());
+             TcpRateLimitStore tcp1 = new TcpRateLimitStore("127.0.0.1", server.getPort());
+             TcpRateLimitStore tcp2 = new TcpRateLimitStore("127.0.0.1", server.getPort());
+             TcpRateLimitStore tcp3 = new TcpRateLimitStore("127.0.0.1", server.getPort())) {
+            runNodes("local state only", new DistributedRateLimiter[]{
+                    new DistributedRateLimiter(1000, 60_000, Algorithm.FIXED_WINDOW),
+                    new DistributedRateLimiter(1000, 60_000, Algorithm.FIXED_WINDOW),
+                    new DistributedRateLimiter(1000, 60_000, Algorithm.FIXED_WINDOW)});
+            runNodes("in-memory store", new DistributedRateLimiter[]{
+                    new DistributedRateLimiter(1000, 60_000, backing, 50),
+                    new DistributedRateLimiter(1000, 60_000, backing, 50),
+                    new DistributedRateLimiter(1000, 60_000, backing, 50)});
+            System.out.println("  store round trips: " + backing.getRequestCount());
+            long start = System.nanoTime();
+            runNodes("TCP store", new DistributedRateLimiter[]{
+                    new DistributedRateLimiter(1000, 60_000, tcp1, 50),
+                    new DistributedRateLimiter(1000, 60_000, tcp2, 50),
+                    new DistributedRateLimiter(1000, 60_000, tcp3, 50)});
+            System.out.printf("  6000 checks in %.1fms%n", (System.nanoTime() - start) / 1e6);
+            leaseTopUpUnderContention();
+        } catch (IOException e) {
+            System.out.println("Store server failed: " + e);
+        }
+    }
+
+    // Multi-permit requests top leases up while other threads drain them; every permit the
+    // store hands out must end up spent, none dropped
+    private static void leaseTopUpUnderContention() throws InterruptedException {
+        InMemoryRateLimitStore store = new InMemoryRateLimitStore();
+        DistributedRateLimiter[] nodes = new DistributedRateLimiter[3];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new DistributedRateLimiter(1000, 60_000, store, 20);
+        }
+        int threadsPerNode = 3;
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(nodes.length * threadsPerNode);
+        for (DistributedRateLimiter node : nodes) {
+            for (int t = 0; t < threadsPerNode; t++) {
+                int permits = 1 + 2 * (t % 2); // 1 or 3
+                new Thread(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        if (node.tryAcquire("api-key-2", permits)) granted.addAndGet(permits);
+                    }
+                    done.countDown();
+                }).start();
+            }
+        }
+        done.await();
+        // A node may end with 1-2 leased permits that no 3-permit request can use
+        System.out.printf("Mixed 1/3-permit requests: %d permits spent of 1000 (%s)%n", granted.get(),
+                granted.get() >= 998 ? "OK" : "lease permits lost");
+    }
+
+    private static void runNodes(String label, DistributedRateLimiter[] nodes) throws InterruptedException {
+        int threadsPerNode = 2;
+        int attemptsPerThread = 1000;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(nodes.length * threadsPerNode);
+        for (DistributedRateLimiter node : nodes) {
+            for (int t = 0; t < threadsPerNode; t++) {
+                new Thread(() -> {
+                    int mine = 0;
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (node.tryAcquire("api-key-1")) mine++;
+                    }
+                    allowed.addAndGet(mine);
+                    done.countDown();
+                }).start();
+            }
+        }
+        done.await();
+        System.out.printf("%-17s allowed %d of %d across %d nodes, node 1 status %s%n", label, allowed.get(),
+                nodes.length * threadsPerNode * attemptsPerThread, nodes.length,
+                nodes[0].getRateLimitStatus("api-key-1"));
+    }
+
+    // Random one-off client IDs must not grow the map past its cap, and a real client's
+    // state must survive the churn
+    private static void scrapingTraffic() throws InterruptedException {
+        System.out.println("\n=== Scraping traffic with random client IDs (cap 10000) ===");
+        DistributedRateLimiter limiter = new DistributedRateLimiter(100, 2000, Algorithm.FIXED_WINDOW, 10_000);
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire("real-user");
+        }
+        TrackingStats before = limiter.getTrackingStats();
+        for (int i = 0; i < 200_000; i++) {
+            limiter.tryAcquire("scraper-" + Long.toHexString(random.nextLong()));
+        }
+        TrackingStats after = limiter.getTrackingStats();
+        System.out.println("After 200000 one-off clients: " + after);
+        System.out.printf("Eviction rate: %.0f/s, real-user status: %s%n",
+                after.evictionRateSince(before), limiter.getRateLimitStatus("real-user"));
+
+        Thread.sleep(2100); // every window has passed, so every bucket is idle
+        int swept = limiter.sweepIdleClients();
+        System.out.println("After the window: swept " + swept + " idle buckets, tracked "
+                + limiter.getTrackedClientsCount());
+
+        // Concurrent new clients must not overshoot the cap while a trim step is running
+        AtomicInteger peak = new AtomicInteger();
+        Thread[] scrapers = new Thread[4];
+        for (int t = 0; t < scrapers.length; t++) {
+            int seed = t;
+            scrapers[t] = new Thread(() -> {
+                Random own = new Random(seed);
+                for (int i = 0; i < 50_000; i++) {
+                    limiter.tryAcquire("scraper-" + Long.toHexString(own.nextLong()));
+                    peak.accumulateAndGet(limiter.getTrackedClientsCount(), Math::max);
+                }
+            });
+            scrapers[t].start();
+        }
+        for (Thread scraper : scrapers) {
+            scraper.join();
+        }
+        System.out.println("4 threads x 50000 one-off clients: peak tracked " + peak.get()
+                + " (cap 10000), " + limiter.getTrackingStats());
+    }
+
+    // A client idles until just before a window boundary, then bursts on both sides of it.
+    // Every algorithm should allow about `limit` in that span except FIXED_WINDOW, which allows 2x.
+    private static void boundaryBurst() throws InterruptedException {
+        System.out.println("\n=== Burst across a window boundary (limit 100 per 1s) ===");
+        for (Algorithm algorithm : Algorithm.values()) {
+            DistributedRateLimiter limiter = new DistributedRateLimiter(100, 1000, algorithm);
+            String clientId = "burst-client";
+            long created = System.currentTimeMillis();
+            limiter.tryAcquire(clientId);
+            sleepUntil(created + 900);
+            long burstStart = System.currentTimeMillis();
+            int allowed = 0;
+            for (int i = 0; i < 200; i++) {
+                if (limiter.tryAcquire(clientId)) allowed++;
+            }
+            long denied = limiter.acquire(clientId, 1);
+            sleepUntil(created + 1010);
+            for (int i = 0; i < 200; i++) {
+                if (limiter.tryAcquire(clientId)) allowed++;
+            }
+            long span = System.currentTimeMillis() - burstStart;
+            System.out.printf("%-15s allowed %3d in %dms, retry-after at the first denial: %dms%n",
+                    algorithm, allowed, span, -1 - denied);
+        }
+    }
+
+    // A fresh client may take its whole budget at once, also when window / limit is below the
+    // clock resolution. Taken in chunks of limit / 1000, so refill during the loop stays small.
+    private static void fullBudgetCheck() {
+        System.out.println("\n=== Whole budget at once (fresh client, 1s window) ===");
+        for (int limit : new int[]{3_000_000, 7}) {
+            for (Algorithm algorithm : Algorithm.values()) {
+                DistributedRateLimiter limiter = new DistributedRateLimiter(limit, 1000, algorithm);
+                int chunk = Math.max(1, limit / 1000);
+                long start = System.currentTimeMillis();
+                long taken = 0;
+                while (limiter.acquire("bulk-client", chunk) >= 0) {
+                    taken += chunk;
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                // Refilling algorithms may add limit / 1000 per elapsed millisecond
+                boolean ok = taken >= limit - chunk + 1 && taken <= limit + (elapsed + 1) * chunk;
+                System.out.printf("limit %,9d %-15s took %,9d%s%n", limit, algorithm, taken,
+                        ok ? " (OK)" : " (FAILED)");
+            }
+        }
+    }
+
+    private static void sleepUntil(long timeMillis) throws InterruptedException {
+        long delay = timeMillis - System.currentTimeMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    // Many threads on one API key: every token must be handed out exactly once
+    private static void hotKeyContention() throws InterruptedException {
+        System.out.println("\n=== Hot key contention ===");
+        int limit = 100_000;
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int attemptsPerThread = 50_000;
+        DistributedRateLimiter limiter = new DistributedRateLimiter(limit);
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                int mine = 0;
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    if (limiter.tryAcquire("hot-key")) mine++;
+                }
+                allowed.addAndGet(mine);
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d threads x %d attempts: allowed %d (limit %d) %s, %.1f M checks/s%n",
+                threads, attemptsPerThread, allowed.get(), limit,
+                allowed.get() == limit ? "OK" : "MISMATCH",
+                threads * (double) attemptsPerThread * 1000 / elapsed);
+        System.out.println("Status: " + limiter.getRateLimitStatus("hot-key"));
+    }
+
+    // tryAcquire should not allocate once the client's bucket exists
+    private static void allocationCheck() {
+        System.out.println("\n=== Allocation per check ===");
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Thread allocation counters not available");
+            return;
+        }
+        com.sun.management.ThreadMXBean counters = (com.sun.management.ThreadMXBean) threads;
+        DistributedRateLimiter limiter = new DistributedRateLimiter(1000);
+        String clientId = "abc123";
+        int calls = 1_000_000;
+        for (int i = 0; i < calls; i++) { // warm up (and let the JIT compile the path)
+            limiter.tryAcquire(clientId);
+            limiter.checkRateLimit(clientId);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = counters.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            limiter.tryAcquire(clientId);
+        }
+        long middle = counters.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            limiter.checkRateLimit(clientId);
+        }
+        long after = counters.getThreadAllocatedBytes(threadId);
+        System.out.printf("tryAcquire: %.1f bytes/call, checkRateLimit: %.1f bytes/call%n",
+                (middle - before) / (double) calls, (after - middle) / (double) calls);
     }
 }
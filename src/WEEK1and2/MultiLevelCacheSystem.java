@@ -167,6 +167,11 @@ public class MultiLevelCacheSystem {
         database.put(video.videoId, video);
     }
 
+    // Same, for callers outside the package (VideoData is package-private)
+    public void addVideo(String videoId, String title, String url, long sizeBytes) {
+        addVideo(new VideoData(videoId, title, url, sizeBytes));
+    }
+
     // Promote from L2 to L1
     private void promoteToL1(String videoId, VideoData data) {
         synchronized (l1Cache) {